@@ -0,0 +1,132 @@
+package org.goobi.api.mq.ticket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.goobi.beans.Process;
+import org.goobi.production.cli.helper.StringPair;
+
+import de.intranda.goobi.plugins.datapoller.FieldFilter;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import ugh.dl.Prefs;
+
+/**
+ * Rule configuration of a CatalogueRequest ticket. The properties of the ticket are parsed only once, so that a ticket with several processes can
+ * reuse the parsed values and the loaded rulesets for all of them.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class CatalogueRequestRule {
+    private String ruleName;
+    private boolean mergeRecords;
+    private boolean analyseSubElements;
+    // maximum number of concurrent catalogue requests for the sub elements of a process
+    private int maxParallelRequests = 1;
+    private boolean exportUpdatedRecords;
+    private boolean testRun;
+    private boolean blockList;
+    private boolean createMissingProcesses;
+    private boolean incrementalPolling;
+    // store the catalogue records of a test run, so that they can be applied later
+    private boolean storeTestRunPatches;
+    // use the stored catalogue records of the last test run instead of requesting the catalogue
+    private boolean applyTestRun;
+    private int responseCacheTtl;
+    private int maxConcurrentRequests;
+    private double requestsPerSecond;
+    private int failureThreshold;
+    private String lastRunMillis;
+    private String xmlTempFolder;
+    private String catalogueName;
+    private String publicationType;
+    private String workflow;
+    private List<StringPair> searchfields = new ArrayList<>();
+    private List<String> steplist = new ArrayList<>();
+    private List<String> fieldFilterList = new ArrayList<>();
+
+    // prepared once from fieldFilterList and blockList, see getFieldFilter()
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private FieldFilter fieldFilter;
+
+    // rulesets are identified by their id, the preferences are loaded once per ticket
+    @Setter(AccessLevel.NONE)
+    private Map<Integer, Prefs> preferences = new HashMap<>();
+
+    public CatalogueRequestRule(Map<String, String> properties) {
+        ruleName = properties.get("ruleName");
+        mergeRecords = Boolean.parseBoolean(properties.get("mergeRecords"));
+        analyseSubElements = Boolean.parseBoolean(properties.get("analyseSubElements"));
+        maxParallelRequests = NumberUtils.toInt(properties.get("maxParallelRequests"), 1);
+        exportUpdatedRecords = Boolean.parseBoolean(properties.get("exportUpdatedRecords"));
+        testRun = Boolean.parseBoolean(properties.get("testRun"));
+        blockList = Boolean.parseBoolean(properties.get("blockList"));
+        createMissingProcesses = Boolean.parseBoolean(properties.get("createMissingProcesses"));
+        incrementalPolling = Boolean.parseBoolean(properties.get("incrementalPolling"));
+        storeTestRunPatches = Boolean.parseBoolean(properties.get("storeTestRunPatches"));
+        applyTestRun = Boolean.parseBoolean(properties.get("applyTestRun"));
+        responseCacheTtl = NumberUtils.toInt(properties.get("responseCacheTtl"));
+        maxConcurrentRequests = NumberUtils.toInt(properties.get("maxConcurrentRequests"));
+        requestsPerSecond = NumberUtils.toDouble(properties.get("requestsPerSecond"));
+        failureThreshold = NumberUtils.toInt(properties.get("failureThreshold"));
+        lastRunMillis = properties.get("lastRunMillis");
+        xmlTempFolder = properties.get("xmlTempFolder");
+        catalogueName = properties.get("catalogueName");
+        publicationType = properties.get("publicationType");
+        workflow = properties.get("workflow");
+
+        String[] fields = properties.get("searchfields").split("\\|");
+        for (String f : fields) {
+            StringPair sp = new StringPair();
+            String[] parts = f.split("=");
+            sp.setOne(parts[0]);
+            sp.setTwo(parts[1]);
+            searchfields.add(sp);
+        }
+
+        // retrieve lists from strings
+        steplist = Arrays.asList(properties.get("steps").split("\\|"));
+        fieldFilterList = Arrays.asList(properties.get("fieldFilter").split("\\|"));
+    }
+
+    /**
+     * get the preferences of the ruleset used by the process, rulesets that were already used by this ticket are not loaded again
+     *
+     * @param process
+     * @return
+     */
+    public Prefs getPreferences(Process process) {
+        return preferences.computeIfAbsent(process.getRegelsatz().getId(), id -> process.getRegelsatz().getPreferences());
+    }
+
+    public void setFieldFilterList(List<String> fieldFilterList) {
+        this.fieldFilterList = fieldFilterList;
+        fieldFilter = null;
+    }
+
+    public void setBlockList(boolean blockList) {
+        this.blockList = blockList;
+        fieldFilter = null;
+    }
+
+    /**
+     * get the field list of the rule prepared for the checks of every field of a record
+     *
+     * @return
+     */
+    public FieldFilter getFieldFilter() {
+        if (fieldFilter == null) {
+            fieldFilter = new FieldFilter(fieldFilterList, blockList);
+        }
+        return fieldFilter;
+    }
+}
@@ -4,12 +4,24 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.goobi.api.mq.QueueType;
 import org.goobi.api.mq.TaskTicket;
+import org.goobi.api.mq.TicketGenerator;
 import org.goobi.api.mq.TicketHandler;
 import org.goobi.beans.Process;
 import org.goobi.beans.Step;
@@ -20,10 +32,18 @@ import org.goobi.production.enums.PluginType;
 import org.goobi.production.plugin.PluginLoader;
 import org.goobi.production.plugin.interfaces.IExportPlugin;
 
+import de.intranda.goobi.plugins.datapoller.CatalogueCircuitBreaker;
 import de.intranda.goobi.plugins.datapoller.CatalogueHandler;
 import de.intranda.goobi.plugins.datapoller.CatalogueHandlerException;
+import de.intranda.goobi.plugins.datapoller.CatalogueRequestOptions;
+import de.intranda.goobi.plugins.datapoller.DocumentChecksum;
+import de.intranda.goobi.plugins.datapoller.FieldFilter;
 import de.intranda.goobi.plugins.datapoller.PollDocStruct;
 import de.intranda.goobi.plugins.datapoller.PullDiff;
+import de.intranda.goobi.plugins.datapoller.RecordFingerprint;
+import de.intranda.goobi.plugins.datapoller.RecordMerger;
+import de.intranda.goobi.plugins.datapoller.RecordStateStore;
+import de.intranda.goobi.plugins.datapoller.TestRunPatchStore;
 import de.intranda.goobi.plugins.datapoller.xls.FileManager;
 import de.sub.goobi.export.dms.ExportDms;
 import de.sub.goobi.helper.BeanHelper;
@@ -34,19 +54,14 @@ import de.sub.goobi.helper.VariableReplacer;
 import de.sub.goobi.helper.enums.StepStatus;
 import de.sub.goobi.helper.exceptions.SwapException;
 import de.sub.goobi.persistence.managers.ProcessManager;
+import jakarta.jms.JMSException;
 import lombok.extern.log4j.Log4j2;
-import ugh.dl.Corporate;
 import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
 import ugh.dl.Fileformat;
 import ugh.dl.Metadata;
-import ugh.dl.MetadataGroup;
 import ugh.dl.MetadataType;
-import ugh.dl.Person;
 import ugh.dl.Prefs;
-import ugh.exceptions.DocStructHasNoTypeException;
-import ugh.exceptions.IncompletePersonObjectException;
-import ugh.exceptions.MetadataTypeNotAllowedException;
 import ugh.exceptions.PreferencesException;
 import ugh.exceptions.TypeNotAllowedForParentException;
 import ugh.fileformats.mets.MetsMods;
@@ -54,35 +69,190 @@ import ugh.fileformats.mets.MetsMods;
 @Log4j2
 public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue> {
 
+    // threads for the catalogue requests of sub elements, the opac plugin instances are pooled by the CatalogueRegistry
+    private static final ExecutorService CHILD_LOOKUP_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "DataPoller child lookup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // parked processes are queued again after this delay, up to the maximum number of retries (about an hour)
+    private static final long OUTAGE_RETRY_DELAY_SECONDS = 60;
+    private static final int MAX_OUTAGE_RETRIES = 60;
+    // the thread ends when no retry is pending
+    private static final ScheduledThreadPoolExecutor OUTAGE_RETRY_EXECUTOR = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "DataPoller outage retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        OUTAGE_RETRY_EXECUTOR.setKeepAliveTime(10, TimeUnit.SECONDS);
+        OUTAGE_RETRY_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     @Override
     public PluginReturnValue call(TaskTicket ticket) {
         log.info("got CatalogueRequest ticket for {}", ticket.getProcessId());
-        PullDiff diff = null;
-        Integer processId = ticket.getProcessId();
-        Process process = null;
         ticket.setStepId(ticket.getProcessId());
         ticket.setStepName("Data Poller");
         // get configured rules from ticket
-        boolean mergeRecords = Boolean.parseBoolean(ticket.getProperties().get("mergeRecords"));
-        boolean analyseSubElements = Boolean.parseBoolean(ticket.getProperties().get("analyseSubElements"));
-        boolean exportUpdatedRecords = Boolean.parseBoolean(ticket.getProperties().get("exportUpdatedRecords"));
-        boolean testRun = Boolean.parseBoolean(ticket.getProperties().get("testRun"));
-        boolean blockList = Boolean.parseBoolean(ticket.getProperties().get("blockList"));
+        CatalogueRequestRule rule = new CatalogueRequestRule(ticket.getProperties());
+
+        String processIds = ticket.getProperties().get("processIds");
+        String hotfolderFiles = ticket.getProperties().get("hotfolderFiles");
+        // process id -> hotfolder file of the entries that are queued again because the catalogue is unavailable
+        Map<Integer, Path> parked = new LinkedHashMap<>();
+        PluginReturnValue result;
+        if (StringUtils.isNotBlank(processIds)) {
+            int failures = 0;
+            String[] ids = processIds.split("\\|");
+            for (String id : ids) {
+                if (handleEntry(Integer.valueOf(id), null, rule, parked) == PluginReturnValue.ERROR) {
+                    failures++;
+                }
+            }
+            // the ticket only fails if none of the processes could be handled
+            result = failures == ids.length ? PluginReturnValue.ERROR : PluginReturnValue.FINISH;
+        } else if (StringUtils.isNotBlank(hotfolderFiles)) {
+            int failures = 0;
+            String[] files = hotfolderFiles.split("\\|");
+            // hotfolder files are identified by negative indices starting with the index of the ticket
+            int index = ticket.getProcessId();
+            for (String file : files) {
+                if (handleEntry(index--, Paths.get(file), rule, parked) == PluginReturnValue.ERROR) {
+                    failures++;
+                }
+            }
+            result = failures == files.length ? PluginReturnValue.ERROR : PluginReturnValue.FINISH;
+        } else {
+            Path hotfolderFile = null;
+            // if the processId is negative we are handling a run with paths instead of processes
+            if (ticket.getProcessId() < 0) {
+                hotfolderFile = Paths.get(ticket.getProperties().get("hotfolderFile"));
+            }
+            result = handleEntry(ticket.getProcessId(), hotfolderFile, rule, parked);
+        }
+        parkEntries(ticket, rule, parked);
+        return result;
+    }
+
+    /**
+     * handle an entry of a ticket. While the catalogue is unavailable, the entry is not handled but parked, before any METS file is read.
+     */
+    private PluginReturnValue handleEntry(Integer processId, Path hotfolderFile, CatalogueRequestRule rule, Map<Integer, Path> parked) {
+        if (!isCatalogueAvailable(rule)) {
+            log.debug("DataPollerPlugin: Parking process {}, the catalogue {} is unavailable", processId, rule.getCatalogueName());
+            parked.put(processId, hotfolderFile);
+            return PluginReturnValue.FINISH;
+        }
+        return handleBatchEntry(processId, hotfolderFile, rule);
+    }
+
+    /**
+     * queue the parked entries of a ticket again after a delay, so that no consumer thread waits for the catalogue. The first of them that is
+     * handled after the probe interval requests the catalogue again. After the last retry the entries are reported as skipped by the outage.
+     */
+    private void parkEntries(TaskTicket ticket, CatalogueRequestRule rule, Map<Integer, Path> parked) {
+        if (parked.isEmpty()) {
+            return;
+        }
+        int retries = NumberUtils.toInt(ticket.getProperties().get("outageRetries"));
+        if (retries >= MAX_OUTAGE_RETRIES) {
+            CatalogueCircuitBreaker breaker = CatalogueCircuitBreaker.getInstance(rule.getCatalogueName());
+            for (Integer processId : parked.keySet()) {
+                log.debug("DataPollerPlugin: Skipping process {}, the catalogue {} is unavailable", processId, rule.getCatalogueName());
+                PullDiff diff = new PullDiff(processId, "", true, "The catalogue " + rule.getCatalogueName() + " is unavailable");
+                diff.setOutageStart(breaker.getOutageStart());
+                diff.setOutageEnd(System.currentTimeMillis());
+                // hotfolder files stay in the hotfolder, so that they are handled by the next run
+                PullDiff.marshalPullDiff(diff, rule.getXmlTempFolder(), rule.getLastRunMillis());
+            }
+            return;
+        }
+        Map<String, String> properties = new HashMap<>(ticket.getProperties());
+        properties.put("outageRetries", String.valueOf(retries + 1));
+        OUTAGE_RETRY_EXECUTOR.schedule(() -> resubmit(properties, parked), OUTAGE_RETRY_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * submit new tickets for parked entries, the processes in a single ticket and every hotfolder file in its own ticket
+     */
+    private static void resubmit(Map<String, String> properties, Map<Integer, Path> parked) {
+        List<Integer> processIds = new ArrayList<>();
+        for (Map.Entry<Integer, Path> entry : parked.entrySet()) {
+            if (entry.getValue() == null) {
+                processIds.add(entry.getKey());
+            } else {
+                TaskTicket ticket = createTicket(properties, entry.getKey());
+                ticket.getProperties().put("hotfolderFile", entry.getValue().toString());
+                submit(ticket);
+            }
+        }
+        if (!processIds.isEmpty()) {
+            TaskTicket ticket = createTicket(properties, processIds.get(0));
+            if (processIds.size() > 1) {
+                ticket.getProperties().put("processIds", StringUtils.join(processIds, "|"));
+            }
+            submit(ticket);
+        }
+    }
+
+    private static TaskTicket createTicket(Map<String, String> properties, Integer processId) {
+        TaskTicket ticket = TicketGenerator.generateSimpleTicket("CatalogueRequest");
+        ticket.getProperties().putAll(properties);
+        ticket.getProperties().remove("processIds");
+        ticket.getProperties().remove("hotfolderFiles");
+        ticket.getProperties().remove("hotfolderFile");
+        ticket.setProcessId(processId);
+        return ticket;
+    }
+
+    private static void submit(TaskTicket ticket) {
+        try {
+            TicketGenerator.submitInternalTicket(ticket, QueueType.SLOW_QUEUE, "CatalogueRequest", ticket.getProcessId());
+        } catch (JMSException e) {
+            log.error("DataPollerPlugin: Couldn't queue process {} again", ticket.getProcessId(), e);
+        }
+    }
+
+    /**
+     * handle a single entry of a ticket, errors are isolated so that the remaining entries are still handled. A process that fails with an
+     * exception is reported as failed result, so that the run is still completed.
+     * 
+     * @param processId
+     * @param hotfolderFile
+     * @param rule
+     * @return
+     */
+    private PluginReturnValue handleBatchEntry(Integer processId, Path hotfolderFile, CatalogueRequestRule rule) {
+        try {
+            return handleProcess(processId, hotfolderFile, rule);
+        } catch (Exception e) {
+            log.error("DataPollerPlugin: Error while handling process {} of a CatalogueRequest ticket", processId, e);
+            PullDiff.marshalPullDiff(new PullDiff(processId, "", true, e.getMessage()), rule.getXmlTempFolder(), rule.getLastRunMillis());
+            return PluginReturnValue.ERROR;
+        } finally {
+            // a probe that was not sent, e.g. because of a cached response, is passed on to the next ticket
+            CatalogueCircuitBreaker.getInstance(rule.getCatalogueName()).releaseProbe();
+        }
+    }
+
+    private PluginReturnValue handleProcess(Integer processId, Path hotfolderFile, CatalogueRequestRule rule) {
+        PullDiff diff = null;
+        Process process = null;
+        boolean testRun = rule.isTestRun();
         // this will be set to false when the process is created by the ticket
         boolean isExistingProcess = true;
-        String lastRunMillis = ticket.getProperties().get("lastRunMillis");
-        String xmlTempFolder = ticket.getProperties().get("xmlTempFolder");
-        String catalogueName = ticket.getProperties().get("catalogueName");
-        String searchFieldsAsString = ticket.getProperties().get("searchfields");
-        List<StringPair> searchfields = new ArrayList<>();
-        Path hotfolderFile = null;
-        // if the processId is negative we are handling a run with paths instead of processes
-        if (processId < 0) {
-            hotfolderFile = Paths.get(ticket.getProperties().get("hotfolderFile"));
+        String lastRunMillis = rule.getLastRunMillis();
+        String xmlTempFolder = rule.getXmlTempFolder();
+
+        // if a hotfolder file is given we are handling a run with paths instead of processes
+        if (hotfolderFile != null) {
             String processName = FilenameUtils.removeExtension(hotfolderFile.getFileName().toString());
-            boolean createMissingProcesses = Boolean.parseBoolean(ticket.getProperties().get("createMissingProcesses"));
-            String publicationType = ticket.getProperties().get("publicationType");
-            String workflowTemplate = ticket.getProperties().get("workflow");
+            boolean createMissingProcesses = rule.isCreateMissingProcesses();
+            String publicationType = rule.getPublicationType();
+            String workflowTemplate = rule.getWorkflow();
 
             if (StorageProvider.getInstance().isFileExists(hotfolderFile)) {
                 //maybe add a filter for a specfic metadatvalue here later
@@ -133,22 +303,7 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
             process = ProcessManager.getProcessById(processId);
         }
         diff = new PullDiff();
-        String[] fields = searchFieldsAsString.split("\\|");
-
-        for (String f : fields) {
-            StringPair sp = new StringPair();
-            String[] parts = f.split("=");
-            sp.setOne(parts[0]);
-            sp.setTwo(parts[1]);
-            searchfields.add(sp);
-        }
-
-        // retrieve lists from strings
-        String stepsAsString = ticket.getProperties().get("steps");
-        List<String> steplist = Arrays.asList(stepsAsString.split("\\|"));
-
-        String fieldFilter = ticket.getProperties().get("fieldFilter");
-        List<String> fieldFilterList = Arrays.asList(fieldFilter.split("\\|"));
+        List<String> steplist = rule.getSteplist();
 
         if (testRun && process == null) {
             log.debug("DataPollerPlugin: Processes will not be created during a testrun: {}", hotfolderFile.toString());
@@ -156,8 +311,14 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
             PullDiff.marshalPullDiff(diff, xmlTempFolder, lastRunMillis);
             return PluginReturnValue.FINISH;
         }
-        if (!updateMetsFileForProcess(process, catalogueName, searchfields, mergeRecords, fieldFilterList, exportUpdatedRecords, analyseSubElements,
-                testRun, blockList, diff)) {
+        if (!updateMetsFileForProcess(process, rule, diff)) {
+            // the run is only finished when every process has a result
+            diff.setFailed(true);
+            if (diff.getProcessId() == 0) {
+                diff.setProcessId(process.getId());
+                diff.setProcessTitle(process.getTitel());
+            }
+            PullDiff.marshalPullDiff(diff, xmlTempFolder, lastRunMillis);
             FileManager.moveCatalogueFile(hotfolderFile, null);
             return PluginReturnValue.ERROR;
         }
@@ -188,6 +349,19 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
         return PluginReturnValue.FINISH;
     }
 
+    /**
+     * check if the circuit breaker of the catalogue allows requests, the ticket does not wait for an unavailable catalogue. If the caller
+     * becomes the probe of the breaker, it must release it with {@link CatalogueCircuitBreaker#releaseProbe()}.
+     * 
+     * @param rule
+     * @return false if the catalogue is unavailable
+     */
+    private boolean isCatalogueAvailable(CatalogueRequestRule rule) {
+        CatalogueCircuitBreaker breaker = CatalogueCircuitBreaker.getInstance(rule.getCatalogueName());
+        breaker.configure(rule.getFailureThreshold());
+        return breaker.tryAcquire();
+    }
+
     @Override
     public String getTicketHandlerName() {
         return "CatalogueRequest";
@@ -206,6 +380,34 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
     public boolean updateMetsFileForProcess(Process p, String configCatalogue, List<StringPair> searchfields, boolean configMergeRecords,
             List<String> fieldFilterList, boolean exportUpdatedRecords, boolean configAnalyseSubElements, boolean testRun, boolean isBlockList,
             PullDiff diff) {
+        CatalogueRequestRule rule = new CatalogueRequestRule();
+        rule.setCatalogueName(configCatalogue);
+        rule.setSearchfields(searchfields);
+        rule.setMergeRecords(configMergeRecords);
+        rule.setFieldFilterList(fieldFilterList);
+        rule.setExportUpdatedRecords(exportUpdatedRecords);
+        rule.setAnalyseSubElements(configAnalyseSubElements);
+        rule.setTestRun(testRun);
+        rule.setBlockList(isBlockList);
+        return updateMetsFileForProcess(p, rule, diff);
+    }
+
+    /**
+     * Method to update the mets file of a process with new data, using the configuration of a rule
+     * 
+     * @param p
+     * @param rule the parsed rule configuration of the ticket
+     * @param diff
+     * @return
+     */
+    public boolean updateMetsFileForProcess(Process p, CatalogueRequestRule rule, PullDiff diff) {
+        String configCatalogue = rule.getCatalogueName();
+        List<StringPair> searchfields = rule.getSearchfields();
+        boolean configMergeRecords = rule.isMergeRecords();
+        FieldFilter fieldFilter = rule.getFieldFilter();
+        boolean exportUpdatedRecords = rule.isExportUpdatedRecords();
+        boolean configAnalyseSubElements = rule.isAnalyseSubElements();
+        boolean testRun = rule.isTestRun();
         log.debug("Starting catalogue request using catalogue: {}", configCatalogue);
         if (diff == null) {
             if (p == null) {
@@ -218,7 +420,7 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
         // first read the original METS file for the process
         Fileformat ffOld = null;
         DigitalDocument dd = null;
-        Prefs prefs = p.getRegelsatz().getPreferences();
+        Prefs prefs = rule.getPreferences(p);
         DocStruct topstructOld = null;
         DocStruct anchorOld = null;
         DocStruct physOld = null;
@@ -228,6 +430,7 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
             if (ffOld == null) {
                 log.error("Metadata file is not readable for process with ID " + p.getId());
                 Helper.addMessageToProcessJournal(p.getId(), LogType.DEBUG, "Metadata file is not readable for catalogue poller plugin");
+                diff.setDebugMessage("Metadata file is not readable");
                 return false;
             }
             dd = ffOld.getDigitalDocument();
@@ -241,6 +444,7 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
             log.error("Exception occurred while reading the metadata file for process with ID " + p.getId(), e);
             Helper.addMessageToProcessJournal(p.getId(), LogType.DEBUG,
                     "Exception occurred in catalogue poller plugin while reading the metadata file: " + e.getMessage());
+            diff.setDebugMessage("Exception while reading the metadata file: " + e.getMessage());
             return false;
         }
 
@@ -258,9 +462,48 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
 
         // request the wished catalogue with the correct identifier
         try {
-            CatalogueHandler catHandler = new CatalogueHandler(configCatalogue, valueList, prefs);
+            // checksum of the METS file before it gets changed
+            String metsChecksum = DocumentChecksum.of(ffOld, prefs);
+            // the records of sub elements are not stored, applying them would need further requests
+            TestRunPatchStore patchStore = null;
+            if (rule.isStoreTestRunPatches() && configMergeRecords && !configAnalyseSubElements) {
+                patchStore = TestRunPatchStore.getInstance(rule.getRuleName());
+            }
+            Fileformat ffNew = null;
+            CatalogueHandler catHandler = null;
+            if (patchStore != null && rule.isApplyTestRun() && !testRun) {
+                TestRunPatchStore.Patch patch = patchStore.load(p.getId(), prefs);
+                if (patch != null && patch.getMetsChecksum().equals(metsChecksum)) {
+                    if (patch.getRecord() == null) {
+                        log.debug("DataPollerPlugin: The last test run found no differences for process {}", p.getId());
+                        diff.setProcessId(p.getId());
+                        diff.setProcessTitle(p.getTitel());
+                        diff.setMergeRecords(true);
+                        patchStore.remove(p.getId());
+                        return true;
+                    }
+                    log.debug("DataPollerPlugin: Using the catalogue record of the last test run for process {}", p.getId());
+                    ffNew = patch.getRecord();
+                } else if (patch != null) {
+                    log.debug("DataPollerPlugin: The METS file of process {} changed since the last test run, requesting the catalogue again",
+                            p.getId());
+                }
+            }
+            if (ffNew == null) {
+                CatalogueRequestOptions options = new CatalogueRequestOptions();
+                options.setResponseCacheTtl(rule.getResponseCacheTtl());
+                options.setCacheScope(p.getRegelsatz().getDatei());
+                options.setRuleName(rule.getRuleName());
+                options.setMaxConcurrentRequests(rule.getMaxConcurrentRequests());
+                options.setRequestsPerSecond(rule.getRequestsPerSecond());
+                if (rule.getRuleName() != null && rule.getLastRunMillis() != null) {
+                    options.setRunKey(rule.getRuleName() + "_" + rule.getLastRunMillis());
+                }
+                catHandler = new CatalogueHandler(configCatalogue, valueList, prefs, options);
+                ffNew = catHandler.getFfNew();
+            }
 
-            if (catHandler.getFfNew() == null) {
+            if (ffNew == null) {
                 diff.setFailed(true);
                 log.debug("DataPollerPlugin: OPAC-Search returned no Fileformat for pocess with id {}", p.getId());
                 diff.setDebugMessage("OPAC-Search returned no Fileformat");
@@ -271,20 +514,42 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
             try {
                 if (configMergeRecords) {
                     // first load logical topstruct or first child
-                    DocStruct topstructNew = catHandler.getFfNew().getDigitalDocument().getLogicalDocStruct();
+                    DocStruct topstructNew = ffNew.getDigitalDocument().getLogicalDocStruct();
                     DocStruct anchorNew = null;
-                    DocStruct physNew = catHandler.getFfNew().getDigitalDocument().getPhysicalDocStruct();
+                    DocStruct physNew = ffNew.getDigitalDocument().getPhysicalDocStruct();
                     if (topstructNew.getType().isAnchor()) {
                         anchorNew = topstructNew;
                         topstructNew = topstructNew.getAllChildren().get(0);
                     }
                     diff.setMergeRecords(true);
-                    PollDocStruct.checkDifferences(topstructNew, topstructOld, fieldFilterList, diff, isBlockList);
+
+                    // with incremental polling the comparison is skipped if neither the catalogue record nor the METS file changed since the last run
+                    RecordStateStore stateStore = null;
+                    String catalogueFingerprint = null;
+                    if (rule.isIncrementalPolling() && !configAnalyseSubElements) {
+                        stateStore = RecordStateStore.getInstance(rule.getRuleName());
+                        catalogueFingerprint = RecordFingerprint.of(fieldFilter, topstructNew, anchorNew, physNew);
+                        String metsFingerprint = RecordFingerprint.of(fieldFilter, topstructOld, anchorOld, physOld);
+                        if (stateStore.isUnchanged(p.getId(), catalogueFingerprint, metsFingerprint)) {
+                            log.debug("DataPollerPlugin: Catalogue record and METS file of process {} are unchanged since the last run", p.getId());
+                            diff.setProcessId(p.getId());
+                            diff.setProcessTitle(p.getTitel());
+                            if (testRun && patchStore != null) {
+                                patchStore.store(p.getId(), metsChecksum, null, prefs);
+                            } else if (patchStore != null && rule.isApplyTestRun()) {
+                                // the stored record is outdated
+                                patchStore.remove(p.getId());
+                            }
+                            return true;
+                        }
+                    }
+
+                    PollDocStruct.checkDifferences(topstructNew, topstructOld, fieldFilter, diff);
                     if (anchorNew != null && anchorOld != null) {
-                        PollDocStruct.checkDifferences(anchorNew, anchorOld, fieldFilterList, diff, isBlockList);
+                        PollDocStruct.checkDifferences(anchorNew, anchorOld, fieldFilter, diff);
                     }
                     if (physNew != null && physOld != null) {
-                        PollDocStruct.checkDifferences(physNew, physOld, fieldFilterList, diff, isBlockList);
+                        PollDocStruct.checkDifferences(physNew, physOld, fieldFilter, diff);
                     }
 
                     diff.setProcessId(p.getId());
@@ -303,46 +568,72 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
                                     .replace("{", "")
                                     .replace("}", "")
                                     .replace(")", ""));
-                            for (DocStruct ds : dsl) {
-                                getMetadataForChild(fieldFilterList, prefs, catHandler, diff, type, ds, isBlockList);
-                            }
+                            getMetadataForChildren(fieldFilter, prefs, catHandler, diff, type, dsl, rule.getMaxParallelRequests());
                         }
                     }
 
-                    if (diff.getMessages() != null && !diff.getMessages().isEmpty() && !testRun) {
+                    if (testRun && patchStore != null) {
+                        patchStore.store(p.getId(), metsChecksum, diff.hasDifferences() ? ffNew : null, prefs);
+                    }
+
+                    if (diff.hasDifferences() && !testRun) {
 
                         // then run through all new metadata and check if these should
                         // replace the old ones
                         // if yes remove the old ones from the old fileformat
-                        mergeMetadataRecords(fieldFilterList, topstructOld, topstructNew, isBlockList);
+                        int changes = RecordMerger.merge(fieldFilter, topstructOld, topstructNew);
                         if (anchorNew != null && anchorOld != null) {
-                            mergeMetadataRecords(fieldFilterList, anchorOld, anchorNew, isBlockList);
+                            changes += RecordMerger.merge(fieldFilter, anchorOld, anchorNew);
                         }
                         if (physNew != null && physOld != null) {
-                            mergeMetadataRecords(fieldFilterList, physOld, physNew, isBlockList);
+                            changes += RecordMerger.merge(fieldFilter, physOld, physNew);
                         }
+                        log.debug("DataPollerPlugin: Merged {} fields into the METS file of process {}", changes, p.getId());
+
+                        if (metsChecksum.equals(DocumentChecksum.of(ffOld, prefs))) {
+                            // e.g. only the order of the values was different, writing and exporting the same content again is not needed
+                            log.debug("DataPollerPlugin: The METS file of process {} is unchanged after the merge, it is not written", p.getId());
+                            diff.setDebugMessage("The METS file is unchanged after the merge and was not written");
+                        } else {
+                            // then write the updated old file format
+                            p.writeMetadataFile(ffOld);
+
+                            StringBuilder processlog = new StringBuilder("Mets file updated by catalogue poller plugin successfully" + "<br/>");
+                            processlog.append("<ul>");
+                            for (String s : diff.getMessages()) {
+                                processlog.append("<li>" + s + "</li>");
+                            }
+                            processlog.append("</ul>");
+                            Helper.addMessageToProcessJournal(p.getId(), LogType.DEBUG, processlog.toString());
 
-                        // then write the updated old file format
-                        p.writeMetadataFile(ffOld);
-
-                        StringBuilder processlog = new StringBuilder("Mets file updated by catalogue poller plugin successfully" + "<br/>");
-                        processlog.append("<ul>");
-                        for (String s : diff.getMessages()) {
-                            processlog.append("<li>" + s + "</li>");
+                            // if the record was updated and it shall be exported again then do it now
+                            if (exportUpdatedRecords) {
+                                exportProcess(p);
+                            }
                         }
-                        processlog.append("</ul>");
-                        Helper.addMessageToProcessJournal(p.getId(), LogType.DEBUG, processlog.toString());
+                    }
 
-                        // if the record was updated and it shall be exported again then do it now
-                        if (exportUpdatedRecords) {
-                            exportProcess(p);
-                        }
+                    if (patchStore != null && rule.isApplyTestRun() && !testRun) {
+                        // the stored record was applied or is outdated
+                        patchStore.remove(p.getId());
+                    }
+
+                    if (stateStore != null && !testRun) {
+                        // remember the state after the update for the next run
+                        stateStore.update(p.getId(), catalogueFingerprint,
+                                RecordFingerprint.of(fieldFilter, topstructOld, anchorOld, physOld));
                     }
 
                 } else if (!testRun) {
-                    p.writeMetadataFile(catHandler.getFfNew());
-                    Helper.addMessageToProcessJournal(p.getId(), LogType.DEBUG, "New Mets file successfully created by catalogue poller plugin");
-                    diff.reset(p.getId(), p.getTitel(), false, "FileFormat was replaced no Diff was created!");
+                    if (metsChecksum.equals(DocumentChecksum.of(ffNew, prefs))) {
+                        log.debug("DataPollerPlugin: The catalogue record of process {} is equal to its METS file, it is not written", p.getId());
+                        diff.reset(p.getId(), p.getTitel(), false, "FileFormat is unchanged and was not replaced, no Diff was created!");
+                    } else {
+                        p.writeMetadataFile(ffNew);
+                        Helper.addMessageToProcessJournal(p.getId(), LogType.DEBUG,
+                                "New Mets file successfully created by catalogue poller plugin");
+                        diff.reset(p.getId(), p.getTitel(), false, "FileFormat was replaced no Diff was created!");
+                    }
                     diff.setMergeRecords(false);
                 } else {
                     diff.reset(p.getId(), p.getTitel(), false, "FileFormat was replaced no Diff was created!");
@@ -350,9 +641,12 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
                 }
             } catch (CatalogueHandlerException ex) {
                 Helper.addMessageToProcessJournal(p.getId(), LogType.DEBUG, "Error opening the catalogue:" + ex.getMessage());
+                diff.reset(p.getId(), p.getTitel(), true, "Error opening the catalogue: " + ex.getMessage());
             }
         } catch (Exception e) {
             log.error("Exception while writing the updated METS file into the file system", e);
+            // report the process as failed instead of writing an empty result
+            diff.reset(p.getId(), p.getTitel(), true, e.getMessage());
             Helper.addMessageToProcessJournal(p.getId(), LogType.DEBUG,
                     "Exception while writing the updated METS file into the file system inside of catalogue poller plugin: " + e.getMessage());
 
@@ -363,177 +657,91 @@ public class CatalogueRequestTicket implements TicketHandler<PluginReturnValue>
         return true;
     }
 
+    public void getMetadataForChild(List<String> fieldFilterList, Prefs prefs, CatalogueHandler catHandler, PullDiff diff, MetadataType type,
+            DocStruct ds, boolean isBlockList) throws Exception {
+        getMetadataForChildren(new FieldFilter(fieldFilterList, isBlockList), prefs, catHandler, diff, type, List.of(ds), 1);
+    }
+
     /**
-     * Replaces the metadata of the old docstruct with the values of the new docstruct. If a metadata type of the old docstruct is marked as to skip,
-     * it gets not replaced. Otherwise all old data is removed and all new metadata is added.
+     * Update the given sub elements and all of their descendants with the catalogue records of their identifiers. Up to maxParallelRequests
+     * records are requested at the same time, the differences are checked and merged in the order of the structure tree.
      * 
-     * @param fieldFilterList
-     * @param docstructOld
-     * @param docstructNew
+     * @param fieldFilter the prepared field list of the rule
+     * @param prefs
+     * @param catHandler
+     * @param diff
+     * @param type metadata type of the identifier
+     * @param children sub elements to update
+     * @param maxParallelRequests maximum number of concurrent catalogue requests
+     * @throws Exception
      */
-    private void mergeMetadataRecords(List<String> fieldFilterList, DocStruct docstructOld, DocStruct docstructNew, boolean isBlockList) {
-
-        // run through all old metadata fields and delete these if these are not in the ignorelist
-        List<Metadata> allMetadata = new ArrayList<>();
-        if (docstructOld.getAllMetadata() != null) {
-            allMetadata = new ArrayList<>(docstructOld.getAllMetadata());
-        }
-        for (Metadata md : allMetadata) {
-            boolean removeMetadata = fieldFilterList.contains(md.getType().getName());
-            // if the list is a blackList the behaviour shall be inversed
-            removeMetadata = (isBlockList) ? !removeMetadata : removeMetadata;
-
-            if (removeMetadata) {
-                List<? extends Metadata> remove = docstructOld.getAllMetadataByType(md.getType());
-                if (remove != null) {
-                    for (Metadata mdRm : remove) {
-                        docstructOld.removeMetadata(mdRm, true);
-                    }
-                }
-            }
-        }
-        if (docstructNew.getAllMetadata() != null) {
-            // now add the new metadata to the old topstruct
-            for (Metadata md : docstructNew.getAllMetadata()) {
-                boolean addMetadata = fieldFilterList.contains(md.getType().getName());
-                // if the list is a blackList the behaviour shall be inversed
-                addMetadata = (isBlockList) ? !addMetadata : addMetadata;
-
-                if (addMetadata) {
-                    try {
-                        docstructOld.addMetadata(md);
-                    } catch (MetadataTypeNotAllowedException | DocStructHasNoTypeException e) {
-                        // ignore metadata not allowed errors
-                    }
-                }
-            }
+    public void getMetadataForChildren(FieldFilter fieldFilter, Prefs prefs, CatalogueHandler catHandler, PullDiff diff, MetadataType type,
+            List<DocStruct> children, int maxParallelRequests) throws Exception {
+        // collect all sub elements with an identifier in tree order
+        List<DocStruct> elements = new ArrayList<>();
+        List<String> identifiers = new ArrayList<>();
+        for (DocStruct child : children) {
+            collectChildIdentifiers(child, type, elements, identifiers);
         }
 
-        // now do the same with persons
-        List<Person> allPersons = new ArrayList<>();
-        if (docstructOld.getAllPersons() != null) {
-            allPersons = new ArrayList<>(docstructOld.getAllPersons());
-        }
-        for (Person pd : allPersons) {
-            boolean removePerson = fieldFilterList.contains(pd.getType().getName());
-            // if the list is a blackList the behaviour shall be inversed
-            removePerson = (isBlockList) ? !removePerson : removePerson;
-            if (removePerson) {
-                List<? extends Person> remove = docstructOld.getAllPersonsByType(pd.getType());
-                if (remove != null) {
-                    for (Person pdRm : remove) {
-                        docstructOld.removePerson(pdRm);
-                    }
-                }
-            }
-        }
-        if (docstructNew.getAllPersons() != null) {
-
-            for (Person pd : docstructNew.getAllPersons()) {
-                // now add the new persons to the old topstruct
-                boolean personExists = fieldFilterList.contains(pd.getType().getName());
-                // if the list is a blackList the behaviour shall be inversed
-                boolean addPerson = (isBlockList) ? !personExists : personExists;
-                if (addPerson) {
-                    try {
-                        docstructOld.addPerson(pd);
-                    } catch (MetadataTypeNotAllowedException | IncompletePersonObjectException e) {
-                        // ignore metadata not allowed errors
-                    }
-                }
+        if (maxParallelRequests <= 1 || identifiers.size() <= 1) {
+            for (int i = 0; i < elements.size(); i++) {
+                Fileformat ff = catHandler.search("12", identifiers.get(i), prefs);
+                applyChildRecord(fieldFilter, diff, elements.get(i), ff);
             }
+            return;
         }
 
-        // corporates
-        List<Corporate> allCorporates = new ArrayList<>();
-        if (docstructOld.getAllCorporates() != null) {
-            allCorporates = new ArrayList<>(docstructOld.getAllCorporates());
-        }
-        for (Corporate corporate : allCorporates) {
-            boolean removeCorporate = fieldFilterList.contains(corporate.getType().getName());
-            // if the list is a blackList the behaviour shall be inversed
-            removeCorporate = (isBlockList) ? !removeCorporate : removeCorporate;
-            if (removeCorporate) {
-                List<? extends Corporate> remove = docstructOld.getAllCorporatesByType(corporate.getType());
-                if (remove != null) {
-                    for (Corporate pdRm : remove) {
-                        docstructOld.removeCorporate(pdRm);
-                    }
-                }
-            }
-        }
-        if (docstructNew.getAllCorporates() != null) {
-            // now add the new persons to the old topstruct
-            for (Corporate corporate : docstructNew.getAllCorporates()) {
-                boolean addCorporate = fieldFilterList.contains(corporate.getType().getName());
-                // if the list is a blackList the behaviour shall be inversed
-                addCorporate = (isBlockList) ? !addCorporate : addCorporate;
-                if (addCorporate) {
+        List<Future<Fileformat>> responses = new ArrayList<>(identifiers.size());
+        Semaphore permits = new Semaphore(maxParallelRequests);
+        try {
+            for (String identifier : identifiers) {
+                permits.acquire();
+                responses.add(CHILD_LOOKUP_EXECUTOR.submit(() -> {
                     try {
-                        docstructOld.addCorporate(corporate);
-                    } catch (MetadataTypeNotAllowedException | IncompletePersonObjectException e) {
-                        // ignore metadata not allowed errors
+                        return catHandler.search("12", identifier, prefs);
+                    } finally {
+                        permits.release();
                     }
-                }
+                }));
             }
-        }
-
-        // check if the new record contains metadata groups
-        List<MetadataGroup> allGroups = new ArrayList<>();
-        if (docstructOld.getAllMetadataGroups() != null) {
-            allGroups = new ArrayList<>(docstructOld.getAllMetadataGroups());
-        }
-        for (MetadataGroup group : allGroups) {
-            // check if the group should be skipped
-            boolean removeGroup = fieldFilterList.contains(group.getType().getName());
-            // if the list is a blackList the behaviour shall be inversed
-            removeGroup = (isBlockList) ? !removeGroup : removeGroup;
-            if (removeGroup) {
-                // if not, remove the old groups of the type
-                List<MetadataGroup> groupsToRemove = docstructOld.getAllMetadataGroupsByType(group.getType());
-                if (groupsToRemove != null) {
-                    for (MetadataGroup oldGroup : groupsToRemove) {
-                        docstructOld.removeMetadataGroup(oldGroup, true);
-                    }
+            for (int i = 0; i < elements.size(); i++) {
+                Fileformat ff;
+                try {
+                    ff = responses.get(i).get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
                 }
+                applyChildRecord(fieldFilter, diff, elements.get(i), ff);
             }
-        }
-        // add new metadata groups
-        if (docstructNew.getAllMetadataGroups() != null) {
-            for (MetadataGroup newGroup : docstructNew.getAllMetadataGroups()) {
-                boolean addGroup = fieldFilterList.contains(newGroup.getType().getName());
-                // if the list is a blackList the behaviour shall be inversed
-                if (isBlockList) {
-                    addGroup = !addGroup;
-                }
-                if (!fieldFilterList.contains(newGroup.getType().getName())) {
-                    try {
-                        docstructOld.addMetadataGroup(newGroup);
-                    } catch (MetadataTypeNotAllowedException | DocStructHasNoTypeException e) {
-                        // ignore metadata not allowed errors
-                    }
-                }
+        } finally {
+            // stop the remaining requests if a record could not be handled
+            for (Future<Fileformat> response : responses) {
+                response.cancel(true);
             }
         }
     }
 
-    public void getMetadataForChild(List<String> fieldFilterList, Prefs prefs, CatalogueHandler catHandler, PullDiff diff, MetadataType type,
-            DocStruct ds, boolean isBlockList) throws Exception {
+    private void collectChildIdentifiers(DocStruct ds, MetadataType type, List<DocStruct> elements, List<String> identifiers) {
         List<? extends Metadata> identifierList = ds.getAllMetadataByType(type);
         if (identifierList != null && !identifierList.isEmpty()) {
-            String identifier = identifierList.get(0).getValue();
-            Fileformat ff = catHandler.getMyImportOpac().search("12", identifier, catHandler.getCoc(), prefs);
-            PollDocStruct.checkDifferences(ff.getDigitalDocument().getLogicalDocStruct(), ds, fieldFilterList, diff, isBlockList);
-            mergeMetadataRecords(fieldFilterList, ds, ff.getDigitalDocument().getLogicalDocStruct(), isBlockList);
+            elements.add(ds);
+            identifiers.add(identifierList.get(0).getValue());
         }
         List<DocStruct> children = ds.getAllChildren();
         if (children != null && !children.isEmpty()) {
             for (DocStruct child : children) {
-                getMetadataForChild(fieldFilterList, prefs, catHandler, diff, type, child, isBlockList);
+                collectChildIdentifiers(child, type, elements, identifiers);
             }
         }
     }
 
+    private void applyChildRecord(FieldFilter fieldFilter, PullDiff diff, DocStruct ds, Fileformat ff) throws Exception {
+        DocStruct newDs = ff.getDigitalDocument().getLogicalDocStruct();
+        PollDocStruct.checkDifferences(newDs, ds, fieldFilter, diff);
+        RecordMerger.merge(fieldFilter, ds, newDs);
+    }
+
     /**
      * Do the export of the process without any images.
      */
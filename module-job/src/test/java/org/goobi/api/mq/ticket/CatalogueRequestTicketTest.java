@@ -1,6 +1,7 @@
 package org.goobi.api.mq.ticket;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -30,6 +31,8 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import de.intranda.goobi.plugins.datapoller.CatalogueHandler;
+import de.intranda.goobi.plugins.datapoller.FieldFilter;
 import de.intranda.goobi.plugins.datapoller.PullDiff;
 import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.config.ConfigurationHelper;
@@ -41,6 +44,8 @@ import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
 import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
 import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
 import ugh.dl.Prefs;
 import ugh.fileformats.opac.PicaPlus;
 
@@ -62,6 +67,8 @@ public class CatalogueRequestTicketTest {
     private static Path defaultGoobiConfig;
 
     private Process process;
+    // response time of the mocked opac plugin in milliseconds
+    private static volatile long searchLatency;
 
     @BeforeClass
     public static void setUpClass() throws Exception {
@@ -123,10 +130,8 @@ public class CatalogueRequestTicketTest {
         IOpacPlugin plugin = EasyMock.createMock(IOpacPlugin.class);
         ConfigOpacCatalogue coc = EasyMock.createMock(ConfigOpacCatalogue.class);
 
-        Fileformat opacResponse = null;
         Prefs prefs = process.getRegelsatz().getPreferences();
-        opacResponse = new PicaPlus(prefs);
-        opacResponse.read(Paths.get(resourcesFolder, "opac_618299084.xml").toString());
+        searchLatency = 0;
 
         List<ConfigOpacCatalogue> cocList = new ArrayList<>();
         cocList.add(coc);
@@ -140,7 +145,15 @@ public class CatalogueRequestTicketTest {
         EasyMock.expect(plugin.getTitle()).andReturn("Pica").anyTimes();
 
         EasyMock.expect(plugin.search(EasyMock.anyString(), EasyMock.anyString(), EasyMock.anyObject(), EasyMock.anyObject()))
-                .andReturn(opacResponse)
+                .andAnswer(() -> {
+                    // simulate the response time of the catalogue
+                    if (searchLatency > 0) {
+                        Thread.sleep(searchLatency);
+                    }
+                    Fileformat opacResponse = new PicaPlus(prefs);
+                    opacResponse.read(Paths.get(resourcesFolder, "opac_618299084.xml").toString());
+                    return opacResponse;
+                })
                 .anyTimes();
 
         PowerMock.mockStatic(PluginLoader.class);
@@ -175,6 +188,37 @@ public class CatalogueRequestTicketTest {
         assertEquals("The meta.xml-file was changed!", beforeCall, afterCall);
     }
 
+    @Test
+    public void getMetadataForChildrenInParallelTest() throws Exception {
+        Prefs prefs = process.getRegelsatz().getPreferences();
+        MetadataType identifierType = prefs.getMetadataTypeByName("_ucc_id");
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct monograph = dd.createDocStruct(prefs.getDocStrctTypeByName("Monograph"));
+        int numberOfChildren = 8;
+        for (int i = 0; i < numberOfChildren; i++) {
+            DocStruct chapter = dd.createDocStruct(prefs.getDocStrctTypeByName("Chapter"));
+            Metadata identifier = new Metadata(identifierType);
+            identifier.setValue("618299084");
+            chapter.addMetadata(identifier);
+            monograph.addChild(chapter);
+        }
+        List<StringPair> catalogueList = new ArrayList<>();
+        catalogueList.add(new StringPair("12", "618299084"));
+        CatalogueHandler catHandler = new CatalogueHandler("K10Plus", catalogueList, prefs);
+        List<String> filter = new ArrayList<>();
+        filter.add("PublicationYear");
+
+        searchLatency = 300;
+        CatalogueRequestTicket catPollTicket = new CatalogueRequestTicket();
+        long start = System.currentTimeMillis();
+        catPollTicket.getMetadataForChildren(new FieldFilter(filter, false), prefs, catHandler, new PullDiff(), identifierType,
+                monograph.getAllChildren(), numberOfChildren);
+        long duration = System.currentTimeMillis() - start;
+
+        // all children of one level are requested at the same time
+        assertTrue("Child lookups took " + duration + " ms", duration < numberOfChildren * searchLatency / 2);
+    }
+
     public Process getProcess() {
         Project project = new Project();
         project.setTitel("Archive_Project");
@@ -0,0 +1,133 @@
+package de.intranda.goobi.plugins.datapoller;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Circuit breaker for a catalogue, shared by all ticket threads of the JVM. After a configured number of consecutive failed requests the catalogue
+ * is treated as unavailable: tickets are skipped before they read any METS file, and only a single probe request is let through at a time. A
+ * successful probe closes the breaker again.
+ */
+@Log4j2
+public class CatalogueCircuitBreaker {
+    private static final Map<String, CatalogueCircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    // time between two probe requests while the catalogue is unavailable
+    private static final long PROBE_INTERVAL_MILLIS = 60000;
+
+    @Getter
+    private final String catalogueName;
+
+    // number of consecutive failures that open the breaker, 0 disables the breaker
+    private int failureThreshold = 0;
+    private int consecutiveFailures = 0;
+    private boolean open = false;
+    // start of the current outage, 0 if the catalogue is available
+    private long outageStart = 0;
+    private long nextProbe = 0;
+    // a probe that does not report a result until then is given up and another ticket may probe
+    private long probeLeaseEnd = 0;
+    // thread of the ticket that may send the probe request
+    private Thread probeThread;
+
+    private CatalogueCircuitBreaker(String catalogueName) {
+        this.catalogueName = catalogueName;
+    }
+
+    /**
+     * get the circuit breaker of a catalogue
+     *
+     * @param catalogueName title of the catalogue in the goobi_opac.xml
+     * @return
+     */
+    public static CatalogueCircuitBreaker getInstance(String catalogueName) {
+        return BREAKERS.computeIfAbsent(catalogueName, CatalogueCircuitBreaker::new);
+    }
+
+    /**
+     * set the number of consecutive failures that open the breaker
+     *
+     * @param threshold 0 disables the breaker
+     */
+    public synchronized void configure(int threshold) {
+        failureThreshold = Math.max(0, threshold);
+        if (failureThreshold == 0 && open) {
+            close();
+        }
+    }
+
+    /**
+     * check if a request to the catalogue is allowed. While the catalogue is unavailable, a single caller at a time is allowed to send a probe
+     * request, all other callers are rejected without waiting.
+     *
+     * @return true if the caller may request the catalogue, false if the catalogue is unavailable
+     */
+    public synchronized boolean tryAcquire() {
+        if (!open) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= nextProbe && now >= probeLeaseEnd) {
+            // this caller is the probe
+            probeLeaseEnd = now + PROBE_INTERVAL_MILLIS;
+            probeThread = Thread.currentThread();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * give up the probe of the calling thread if it did not send a request, e.g. because the response was cached or the process was skipped.
+     * The next caller may send the probe immediately.
+     */
+    public synchronized void releaseProbe() {
+        if (probeThread == Thread.currentThread()) {
+            probeThread = null;
+            probeLeaseEnd = 0;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        probeThread = null;
+        consecutiveFailures = 0;
+        if (open) {
+            log.info("DataPollerPlugin: Catalogue {} is available again", catalogueName);
+            close();
+        }
+    }
+
+    public synchronized void recordFailure() {
+        probeThread = null;
+        consecutiveFailures++;
+        long now = System.currentTimeMillis();
+        if (open) {
+            // the probe failed, wait for the next one
+            nextProbe = now + PROBE_INTERVAL_MILLIS;
+            probeLeaseEnd = 0;
+        } else if (failureThreshold > 0 && consecutiveFailures >= failureThreshold) {
+            log.warn("DataPollerPlugin: Catalogue {} failed {} times in a row, pausing the requests", catalogueName, consecutiveFailures);
+            open = true;
+            outageStart = now;
+            nextProbe = now + PROBE_INTERVAL_MILLIS;
+            probeLeaseEnd = 0;
+        }
+    }
+
+    /**
+     * get the start of the current outage
+     *
+     * @return time in milliseconds or 0 if the catalogue is available
+     */
+    public synchronized long getOutageStart() {
+        return outageStart;
+    }
+
+    private void close() {
+        open = false;
+        outageStart = 0;
+        consecutiveFailures = 0;
+    }
+}
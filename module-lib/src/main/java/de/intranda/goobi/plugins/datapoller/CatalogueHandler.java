@@ -1,103 +1,178 @@
 package de.intranda.goobi.plugins.datapoller;
 
-import de.unigoettingen.sub.search.opac.ConfigOpac;
 import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang.StringUtils;
 import org.goobi.production.cli.helper.StringPair;
-import org.goobi.production.enums.PluginType;
-import org.goobi.production.plugin.PluginLoader;
 import org.goobi.production.plugin.interfaces.IOpacPlugin;
 import ugh.dl.Fileformat;
 import ugh.dl.Prefs;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.List;
 
 @Log4j2
 public class CatalogueHandler {
-    @Getter
-    private IOpacPlugin myImportOpac = null;
-    @Getter
-    private ConfigOpacCatalogue coc = null;
+    public static final String JSON_PLUGIN = "intranda_opac_json";
+
     @Getter
     private Fileformat ffNew;
 
+    private final String catalogueName;
+    private final CatalogueRequestOptions options;
+
     public CatalogueHandler(String configCatlogue, List<StringPair> valueList, Prefs prefs) throws CatalogueHandlerException {
-        setCatalogueConfigAndPlugin(configCatlogue);
-        if ("intranda_opac_json".equals(myImportOpac.getTitle())) {
-            setFileFormatJson(configCatlogue, valueList, prefs);
+        this(configCatlogue, valueList, prefs, new CatalogueRequestOptions());
+    }
+
+    public CatalogueHandler(String configCatlogue, List<StringPair> valueList, Prefs prefs, CatalogueRequestOptions options)
+            throws CatalogueHandlerException {
+        this.catalogueName = configCatlogue;
+        this.options = options;
+        // the configuration and plugin instances are pooled per catalogue, see CatalogueRegistry
+        if (CatalogueRegistry.isJsonPlugin(configCatlogue)) {
+            setFileFormatJson(valueList, prefs);
         } else {
-            setFileFormat(configCatlogue, valueList, prefs);
+            setFileFormat(valueList, prefs);
         }
         // TODO throw Ex if ff is null
     }
 
-    private void setFileFormat(String configCatalogue, List<StringPair> valueList, Prefs prefs) throws CatalogueHandlerException {
-        try {
-            coc = ConfigOpac.getInstance().getCatalogueByName(configCatalogue);
-            myImportOpac = (IOpacPlugin) PluginLoader.getPluginByTitle(PluginType.Opac, coc.getOpacType());
-            this.ffNew = myImportOpac.search(valueList.get(0).getOne(), valueList.get(0).getTwo(), coc, prefs);
-        } catch (Exception ex) {
-            // TODO move one up
-            log.error("Exception while requesting the catalogue", ex);
-            throw new CatalogueHandlerException("Exception while requesting the catalogue inside of catalogue poller plugin", ex);
-            // TODO ove this out of here
-            // Helper.addMessageToProcessJournal(p.getId(), LogType.DEBUG,
+    /**
+     * request another record from the catalogue of this handler, e.g. the record of a sub element. This method may be called from several threads
+     * at the same time, each request borrows its own opac plugin instance.
+     *
+     * @param field search field
+     * @param value search value
+     * @param prefs
+     * @return the record or null if nothing was found
+     * @throws CatalogueHandlerException
+     */
+    public Fileformat search(String field, String value, Prefs prefs) throws CatalogueHandlerException {
+        return request(ResponseCache.getKey(catalogueName, field, value, options.getCacheScope()), prefs, () -> {
+            CatalogueRegistry.CatalogueEntry catalogue = CatalogueRegistry.borrow(catalogueName);
+            try {
+                return catalogue.getPlugin().search(field, value, catalogue.getCoc(), prefs);
+            } catch (Exception ex) {
+                log.error("Exception while requesting the catalogue", ex);
+                throw new CatalogueHandlerException("Exception while requesting the catalogue inside of catalogue poller plugin", ex);
+            } finally {
+                CatalogueRegistry.release(catalogue);
+            }
+        });
+    }
+
+    private void setFileFormat(List<StringPair> valueList, Prefs prefs) throws CatalogueHandlerException {
+        this.ffNew = search(valueList.get(0).getOne(), valueList.get(0).getTwo(), prefs);
+    }
 
+    private void setFileFormatJson(List<StringPair> valueList, Prefs prefs) throws CatalogueHandlerException {
+        // the json plugin uses all search fields, so all of them are part of the cache key
+        StringBuilder fields = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (StringPair sp : valueList) {
+            fields.append(sp.getOne()).append(';');
+            values.append(sp.getTwo()).append(';');
         }
+        String key = ResponseCache.getKey(catalogueName, fields.toString(), values.toString(), options.getCacheScope());
+        this.ffNew = request(key, prefs, () -> searchJson(valueList, prefs));
     }
 
-    private void setFileFormatJson(String configCatalogue, List<StringPair> valueList, Prefs prefs) throws CatalogueHandlerException {
+    private Fileformat searchJson(List<StringPair> valueList, Prefs prefs) throws CatalogueHandlerException {
+        CatalogueRegistry.CatalogueEntry catalogue = CatalogueRegistry.borrow(catalogueName);
         try {
-            Class<? extends Object> opacClass = this.myImportOpac.getClass();
-            Method getConfigForOpac = opacClass.getMethod("getConfigForOpac");
-            Object jsonOpacConfig = getConfigForOpac.invoke(this.myImportOpac);
-
-            Class<? extends Object> jsonOpacConfigClass = jsonOpacConfig.getClass();
-
-            Method getFieldList = jsonOpacConfigClass.getMethod("getFieldList");
-
-            Object fieldList = getFieldList.invoke(jsonOpacConfig);
-            @SuppressWarnings("unchecked")
-            List<Object> fields = (List<Object>) fieldList;
-            for (StringPair sp : valueList) {
-                for (Object searchField : fields) {
-                    Class<? extends Object> searchFieldClass = searchField.getClass();
-
-                    Method getId = searchFieldClass.getMethod("getId");
-
-                    Method setText = searchFieldClass.getMethod("setText", String.class);
-                    Method setSelectedField = searchFieldClass.getMethod("setSelectedField", String.class);
+            return searchJson(catalogue.getPlugin(), catalogue.getCoc(), valueList, prefs);
+        } finally {
+            CatalogueRegistry.release(catalogue);
+        }
+    }
 
-                    Object id = getId.invoke(searchField);
-                    if (((String) id).equals(sp.getOne())) {
-                        String value = sp.getTwo();
-                        if (StringUtils.isNotBlank(value)) {
-                            setText.invoke(searchField, value);
-                            setSelectedField.invoke(searchField, sp.getOne());
-                        }
+    private Fileformat searchJson(IOpacPlugin myImportOpac, ConfigOpacCatalogue coc, List<StringPair> valueList, Prefs prefs)
+            throws CatalogueHandlerException {
+        // the plugin is not available at compile time, its methods are called with cached method handles
+        Object jsonOpacConfig = JsonOpacMethods.getConfigForOpac(myImportOpac);
+        List<Object> fields = JsonOpacMethods.getFieldList(jsonOpacConfig);
+        String[] ids = new String[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            ids[i] = JsonOpacMethods.getId(fields.get(i));
+        }
+        for (StringPair sp : valueList) {
+            for (int i = 0; i < fields.size(); i++) {
+                if (sp.getOne().equals(ids[i])) {
+                    String value = sp.getTwo();
+                    if (StringUtils.isNotBlank(value)) {
+                        JsonOpacMethods.setText(fields.get(i), value);
+                        JsonOpacMethods.setSelectedField(fields.get(i), sp.getOne());
                     }
                 }
-
             }
-            Method search = opacClass.getMethod("search", String.class, String.class, ConfigOpacCatalogue.class, Prefs.class);
+        }
+        return JsonOpacMethods.search(myImportOpac, "", "", coc, prefs);
+    }
+
+    /**
+     * execute a catalogue request. Within a run the same request is only executed once, see RequestCoalescer.
+     */
+    private Fileformat request(String cacheKey, Prefs prefs, CatalogueRequest catalogueRequest) throws CatalogueHandlerException {
+        if (StringUtils.isBlank(options.getRunKey())) {
+            return requestCached(cacheKey, prefs, catalogueRequest);
+        }
+        return RequestCoalescer.execute(options.getRunKey(), cacheKey, prefs, () -> requestCached(cacheKey, prefs, catalogueRequest));
+    }
 
-            this.ffNew = (Fileformat) search.invoke(myImportOpac, "", "", coc, prefs);
-        } catch (NoSuchMethodException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-            throw new CatalogueHandlerException("Exception while requesting the catalogue inside of catalogue poller plugin", ex);
-            //TODO for once actually handle this exception
+    /**
+     * execute a catalogue request, responses are taken from and stored in the response cache if the rule enables it
+     */
+    private Fileformat requestCached(String cacheKey, Prefs prefs, CatalogueRequest catalogueRequest) throws CatalogueHandlerException {
+        if (options.getResponseCacheTtl() <= 0) {
+            return executeLimited(catalogueRequest);
+        }
+        ResponseCache cache = ResponseCache.getInstance();
+        Fileformat ff = cache.get(cacheKey, options.getResponseCacheTtl(), prefs);
+        if (ff != null) {
+            log.debug("DataPollerPlugin: Using cached catalogue response for {}", cacheKey);
+            return ff;
         }
+        ff = executeLimited(catalogueRequest);
+        if (ff != null) {
+            cache.put(cacheKey, ff, prefs);
+        }
+        return ff;
     }
 
-    private void setCatalogueConfigAndPlugin(String configCatalogue) {
-        for (ConfigOpacCatalogue configOpacCatalogue : ConfigOpac.getInstance().getAllCatalogues("")) {
-            if (configOpacCatalogue.getTitle().equals(configCatalogue)) {
-                this.myImportOpac = configOpacCatalogue.getOpacPlugin();
-                this.coc = configOpacCatalogue;
+    /**
+     * execute a catalogue request within the limits of the catalogue, see CatalogueLimiter. The result is reported to the circuit breaker of
+     * the catalogue.
+     */
+    private Fileformat executeLimited(CatalogueRequest catalogueRequest) throws CatalogueHandlerException {
+        CatalogueLimiter limiter = CatalogueLimiter.getInstance(catalogueName);
+        limiter.configure(options.getRuleName(), options.getMaxConcurrentRequests(), options.getRequestsPerSecond());
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CatalogueHandlerException("Interrupted while waiting for a request to the catalogue " + catalogueName, e);
+        }
+        long start = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            Fileformat ff = catalogueRequest.execute();
+            success = true;
+            return ff;
+        } finally {
+            limiter.release(System.currentTimeMillis() - start, success);
+            // consecutive failures open the circuit breaker of the catalogue
+            CatalogueCircuitBreaker breaker = CatalogueCircuitBreaker.getInstance(catalogueName);
+            if (success) {
+                breaker.recordSuccess();
+            } else {
+                breaker.recordFailure();
             }
         }
     }
+
+    @FunctionalInterface
+    interface CatalogueRequest {
+        Fileformat execute() throws CatalogueHandlerException;
+    }
 }
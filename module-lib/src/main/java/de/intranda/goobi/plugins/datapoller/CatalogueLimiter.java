@@ -0,0 +1,252 @@
+package de.intranda.goobi.plugins.datapoller;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Limits the number of concurrent requests and the requests per second for a catalogue. There is one limiter per catalogue, which is shared by
+ * all ticket threads of the JVM.
+ *
+ * The configured values are upper bounds. The limiter halves its current limits after a failed or slow response and raises them step by step
+ * again with every successful response, so that a throttling catalogue is not flooded with further requests.
+ */
+@Log4j2
+public class CatalogueLimiter {
+    private static final Map<String, CatalogueLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    // responses that take longer are handled like errors
+    private static final long SLOW_RESPONSE_MILLIS = 10000;
+    // the rate is never reduced below one request in five seconds
+    private static final double MIN_REQUESTS_PER_SECOND = 0.2;
+    // limits of rules that didn't request the catalogue for this time are no longer used, e.g. after the rule was removed or renamed
+    private static final long RULE_EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Getter
+    private final String catalogueName;
+
+    // limits configured by each rule that requests the catalogue
+    private final Map<String, RuleLimits> ruleLimits = new HashMap<>();
+    // time of the last request of each rule
+    private final Map<String, Long> ruleLastConfigured = new HashMap<>();
+
+    // effective limits of all rules, 0 means unlimited
+    private int maxConcurrentRequests = 0;
+    private double maxRequestsPerSecond = 0;
+
+    // current limits after adapting to the responses of the catalogue
+    private double concurrencyLimit = 0;
+    private double requestsPerSecond = 0;
+
+    private int activeRequests = 0;
+    private long nextPermitNanos = 0;
+
+    // statistics
+    private long requests = 0;
+    private long failedRequests = 0;
+    private long slowResponses = 0;
+    private long backoffs = 0;
+    private long totalWaitMillis = 0;
+    private long totalResponseMillis = 0;
+
+    private CatalogueLimiter(String catalogueName) {
+        this.catalogueName = catalogueName;
+    }
+
+    /**
+     * get the limiter of a catalogue
+     *
+     * @param catalogueName title of the catalogue in the goobi_opac.xml
+     * @return
+     */
+    public static CatalogueLimiter getInstance(String catalogueName) {
+        return LIMITERS.computeIfAbsent(catalogueName, CatalogueLimiter::new);
+    }
+
+    /**
+     * get the statistics of all catalogues that were requested since the start of Goobi
+     *
+     * @return
+     */
+    public static List<Statistics> getAllStatistics() {
+        List<Statistics> statistics = new ArrayList<>();
+        for (CatalogueLimiter limiter : LIMITERS.values()) {
+            statistics.add(limiter.getStatistics());
+        }
+        statistics.sort(Comparator.comparing(Statistics::getCatalogueName));
+        return statistics;
+    }
+
+    /**
+     * set the upper limits a rule requests the catalogue with. If several rules request the same catalogue, the lowest limits of all rules are
+     * used. The limits of rules that didn't request the catalogue within the last hour are removed. The current limits are only adapted if the
+     * effective limits change.
+     *
+     * @param ruleName name of the requesting rule
+     * @param maxConcurrent maximum number of concurrent requests, 0 for no limit
+     * @param maxPerSecond maximum number of requests per second, 0 for no limit
+     */
+    public void configure(String ruleName, int maxConcurrent, double maxPerSecond) {
+        configure(ruleName, maxConcurrent, maxPerSecond, System.currentTimeMillis());
+    }
+
+    synchronized void configure(String ruleName, int maxConcurrent, double maxPerSecond, long now) {
+        String name = ruleName == null ? "" : ruleName;
+        RuleLimits limits = new RuleLimits(Math.max(0, maxConcurrent), Math.max(0, maxPerSecond));
+        ruleLastConfigured.put(name, now);
+        boolean expired = ruleLastConfigured.entrySet().removeIf(entry -> now - entry.getValue() > RULE_EXPIRY_MILLIS);
+        if (expired) {
+            ruleLimits.keySet().retainAll(ruleLastConfigured.keySet());
+        }
+        if (limits.equals(ruleLimits.put(name, limits)) && !expired) {
+            return;
+        }
+        int effectiveConcurrent = 0;
+        double effectivePerSecond = 0;
+        for (RuleLimits rule : ruleLimits.values()) {
+            effectiveConcurrent = minimumLimit(effectiveConcurrent, rule.getMaxConcurrentRequests());
+            effectivePerSecond = minimumLimit(effectivePerSecond, rule.getMaxRequestsPerSecond());
+        }
+        if (effectiveConcurrent != maxConcurrentRequests) {
+            // keep a reduced limit, it grows again up to the new maximum with successful responses
+            boolean unlimited = maxConcurrentRequests == 0 || effectiveConcurrent == 0;
+            concurrencyLimit = unlimited ? effectiveConcurrent : Math.min(concurrencyLimit, effectiveConcurrent);
+            maxConcurrentRequests = effectiveConcurrent;
+            notifyAll();
+        }
+        if (effectivePerSecond != maxRequestsPerSecond) {
+            boolean unlimited = maxRequestsPerSecond == 0 || effectivePerSecond == 0;
+            requestsPerSecond = unlimited ? effectivePerSecond : Math.min(requestsPerSecond, effectivePerSecond);
+            maxRequestsPerSecond = effectivePerSecond;
+        }
+    }
+
+    private static int minimumLimit(int current, int limit) {
+        return current == 0 ? limit : limit == 0 ? current : Math.min(current, limit);
+    }
+
+    private static double minimumLimit(double current, double limit) {
+        return current == 0 ? limit : limit == 0 ? current : Math.min(current, limit);
+    }
+
+    /**
+     * wait until a request to the catalogue is allowed. Every call must be followed by a call of {@link #release(long, boolean)}.
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long delayNanos;
+        synchronized (this) {
+            while (maxConcurrentRequests > 0 && activeRequests >= (int) concurrencyLimit) {
+                wait();
+            }
+            activeRequests++;
+            delayNanos = reservePermit();
+        }
+        if (delayNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    activeRequests--;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+        synchronized (this) {
+            totalWaitMillis += System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * finish a request and adapt the limits to the response of the catalogue
+     *
+     * @param responseMillis duration of the request
+     * @param success false if the request failed
+     */
+    public synchronized void release(long responseMillis, boolean success) {
+        activeRequests--;
+        requests++;
+        totalResponseMillis += responseMillis;
+        boolean slow = responseMillis > SLOW_RESPONSE_MILLIS;
+        if (!success) {
+            failedRequests++;
+        } else if (slow) {
+            slowResponses++;
+        }
+        if (!success || slow) {
+            backoffs++;
+            concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+            requestsPerSecond = Math.max(Math.min(MIN_REQUESTS_PER_SECOND, maxRequestsPerSecond), requestsPerSecond / 2);
+            log.debug("DataPollerPlugin: Reducing the request limits of catalogue {} to {} concurrent requests and {} requests per second",
+                    catalogueName, (int) concurrencyLimit, requestsPerSecond);
+        } else {
+            // additive increase, the concurrency grows by about one per window of successful requests
+            concurrencyLimit = Math.min(maxConcurrentRequests, concurrencyLimit + 1 / Math.max(1, concurrencyLimit));
+            requestsPerSecond = Math.min(maxRequestsPerSecond, requestsPerSecond + maxRequestsPerSecond / 20);
+        }
+        notifyAll();
+    }
+
+    public synchronized Statistics getStatistics() {
+        return new Statistics(catalogueName, maxConcurrentRequests, maxRequestsPerSecond, (int) concurrencyLimit, requestsPerSecond,
+                activeRequests, requests, failedRequests, slowResponses, backoffs, requests == 0 ? 0 : totalWaitMillis / requests,
+                requests == 0 ? 0 : totalResponseMillis / requests);
+    }
+
+    /**
+     * reserve the next free slot of the rate limit
+     *
+     * @return nanoseconds to wait until the slot is reached
+     */
+    private long reservePermit() {
+        if (maxRequestsPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long permit = Math.max(now, nextPermitNanos);
+        nextPermitNanos = permit + (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        return permit - now;
+    }
+
+    /**
+     * snapshot of the limits and counters of a catalogue
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Statistics {
+        private String catalogueName;
+        private int maxConcurrentRequests;
+        private double maxRequestsPerSecond;
+        private int currentConcurrentRequests;
+        private double currentRequestsPerSecond;
+        private int activeRequests;
+        private long requests;
+        private long failedRequests;
+        private long slowResponses;
+        private long backoffs;
+        private long averageWaitMillis;
+        private long averageResponseMillis;
+    }
+
+    /**
+     * limits a single rule requests the catalogue with
+     */
+    @Data
+    @AllArgsConstructor
+    private static class RuleLimits {
+        private int maxConcurrentRequests;
+        private double maxRequestsPerSecond;
+    }
+}
@@ -0,0 +1,180 @@
+package de.intranda.goobi.plugins.datapoller;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.production.enums.PluginType;
+import org.goobi.production.plugin.PluginLoader;
+import org.goobi.production.plugin.interfaces.IOpacPlugin;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.StorageProvider;
+import de.unigoettingen.sub.search.opac.ConfigOpac;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Cache for the resolved catalogue configurations and opac plugins, so that they are not looked up again for every request.
+ *
+ * Opac plugins keep the state of their last request (search fields, hit counts, ...) and are therefore not thread safe. A request borrows an
+ * instance from the pool of its catalogue and returns it afterwards, so that an instance is never used by two threads at the same time. A pool
+ * is used instead of thread locals, because the threads of the message queue and the web container outlive the plugin class loader. All cached
+ * entries are resolved again after the goobi_opac.xml was changed.
+ */
+@Log4j2
+public class CatalogueRegistry {
+    private static final String OPAC_CONFIGURATION = "goobi_opac.xml";
+    // instances per catalogue that are kept for later requests, further instances are created on demand and discarded after use
+    private static final int MAX_POOL_SIZE = 16;
+    // the goobi_opac.xml is checked for changes at most once in this interval
+    private static final long CONFIGURATION_CHECK_MILLIS = 10000;
+
+    private static final Map<String, Pool> POOLS = new ConcurrentHashMap<>();
+    // catalogues that are requested with the json plugin
+    private static final Map<String, Boolean> JSON_CATALOGUES = new ConcurrentHashMap<>();
+
+    // path and modification date of the goobi_opac.xml the cached entries were resolved with
+    private static volatile String configurationState;
+    private static volatile long generation = 0;
+    private static volatile long nextConfigurationCheck = 0;
+
+    private CatalogueRegistry() {
+    }
+
+    /**
+     * borrow the catalogue configuration and an opac plugin instance of a catalogue. Every call must be followed by a call of
+     * {@link #release(CatalogueEntry)}.
+     *
+     * @param catalogueName title of the catalogue in the goobi_opac.xml
+     * @return
+     * @throws CatalogueHandlerException if the catalogue is not configured
+     */
+    public static CatalogueEntry borrow(String catalogueName) throws CatalogueHandlerException {
+        checkConfiguration();
+        Pool pool = POOLS.computeIfAbsent(catalogueName, name -> new Pool());
+        CatalogueEntry entry;
+        while ((entry = pool.entries.poll()) != null) {
+            pool.size.decrementAndGet();
+            if (entry.getGeneration() == generation) {
+                return entry;
+            }
+        }
+        return resolveCatalogue(catalogueName);
+    }
+
+    /**
+     * return a borrowed entry, so that it can be used by the next request
+     *
+     * @param entry
+     */
+    public static void release(CatalogueEntry entry) {
+        if (entry == null || entry.getGeneration() != generation) {
+            return;
+        }
+        Pool pool = POOLS.computeIfAbsent(entry.getCatalogueName(), name -> new Pool());
+        if (pool.size.incrementAndGet() <= MAX_POOL_SIZE) {
+            pool.entries.offer(entry);
+        } else {
+            pool.size.decrementAndGet();
+        }
+    }
+
+    /**
+     * check if a catalogue is requested with the json plugin. The result is cached until the goobi_opac.xml changes.
+     *
+     * @param catalogueName title of the catalogue in the goobi_opac.xml
+     * @return
+     * @throws CatalogueHandlerException if the catalogue is not configured
+     */
+    public static boolean isJsonPlugin(String catalogueName) throws CatalogueHandlerException {
+        checkConfiguration();
+        Boolean json = JSON_CATALOGUES.get(catalogueName);
+        if (json == null) {
+            CatalogueEntry entry = borrow(catalogueName);
+            json = CatalogueHandler.JSON_PLUGIN.equals(entry.getPlugin().getTitle());
+            release(entry);
+        }
+        return json;
+    }
+
+    /**
+     * drop all cached entries, they are resolved again with the next request
+     */
+    public static synchronized void invalidate() {
+        generation++;
+        POOLS.clear();
+        JSON_CATALOGUES.clear();
+    }
+
+    private static void checkConfiguration() {
+        long now = System.currentTimeMillis();
+        if (now < nextConfigurationCheck) {
+            return;
+        }
+        nextConfigurationCheck = now + CONFIGURATION_CHECK_MILLIS;
+        Path configuration = Paths.get(ConfigurationHelper.getInstance().getConfigurationFolder(), OPAC_CONFIGURATION);
+        String state;
+        try {
+            state = configuration + ":" + StorageProvider.getInstance().getLastModifiedDate(configuration);
+        } catch (IOException e) {
+            state = configuration.toString();
+        }
+        if (!state.equals(configurationState)) {
+            synchronized (CatalogueRegistry.class) {
+                if (!state.equals(configurationState)) {
+                    log.debug("DataPollerPlugin: Catalogue configuration {} changed, resolving catalogues again", configuration);
+                    configurationState = state;
+                    invalidate();
+                }
+            }
+        }
+    }
+
+    private static CatalogueEntry resolveCatalogue(String catalogueName) throws CatalogueHandlerException {
+        // an entry resolved while the configuration changes belongs to the old generation and is not returned to the pool
+        long resolvedGeneration = generation;
+        ConfigOpacCatalogue coc = null;
+        IOpacPlugin plugin = null;
+        for (ConfigOpacCatalogue configOpacCatalogue : ConfigOpac.getInstance().getAllCatalogues("")) {
+            if (configOpacCatalogue.getTitle().equals(catalogueName)) {
+                plugin = configOpacCatalogue.getOpacPlugin();
+                coc = configOpacCatalogue;
+            }
+        }
+        if (coc == null || plugin == null) {
+            throw new CatalogueHandlerException("The catalogue " + catalogueName + " is not configured in " + OPAC_CONFIGURATION, null);
+        }
+        // the json plugin is configured per catalogue, all other plugins are loaded by the opac type of the catalogue
+        boolean json = CatalogueHandler.JSON_PLUGIN.equals(plugin.getTitle());
+        if (!json) {
+            coc = ConfigOpac.getInstance().getCatalogueByName(catalogueName);
+            plugin = (IOpacPlugin) PluginLoader.getPluginByTitle(PluginType.Opac, coc.getOpacType());
+        }
+        if (resolvedGeneration == generation) {
+            JSON_CATALOGUES.put(catalogueName, json);
+        }
+        return new CatalogueEntry(catalogueName, coc, plugin, resolvedGeneration);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class CatalogueEntry {
+        private String catalogueName;
+        private ConfigOpacCatalogue coc;
+        private IOpacPlugin plugin;
+        private long generation;
+    }
+
+    private static class Pool {
+        private final Queue<CatalogueEntry> entries = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+    }
+}
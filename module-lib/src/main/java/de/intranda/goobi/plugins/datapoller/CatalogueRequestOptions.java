@@ -0,0 +1,22 @@
+package de.intranda.goobi.plugins.datapoller;
+
+import lombok.Data;
+
+/**
+ * Settings of a rule that control how the catalogue is requested by the CatalogueHandler
+ */
+@Data
+public class CatalogueRequestOptions {
+    // time in hours a cached catalogue response may be reused, 0 disables the response cache
+    private int responseCacheTtl = 0;
+    // name of the ruleset the responses are mapped with, responses are only reused for the same ruleset
+    private String cacheScope = "";
+    // name of the requesting rule, the limits of all rules requesting the same catalogue are combined
+    private String ruleName = "";
+    // maximum number of concurrent requests to the catalogue, 0 for no limit
+    private int maxConcurrentRequests = 0;
+    // maximum number of requests per second to the catalogue, 0 for no limit
+    private double requestsPerSecond = 0;
+    // identifier of the run, requests with the same key are only executed once per run. Empty to disable this.
+    private String runKey = "";
+}
@@ -44,6 +44,9 @@ public class ConfigHelper {
             ci.setTitle(rule.getString("@title"));
             ci.setFilter(rule.getString("filter"));
             ci.setCatalogue(rule.getString("catalogue"));
+            ci.setMaxConcurrentRequests(rule.getInt("catalogue/@maxConcurrentRequests", 0));
+            ci.setRequestsPerSecond(rule.getDouble("catalogue/@requestsPerSecond", 0));
+            ci.setFailureThreshold(rule.getInt("catalogue/@failureThreshold", 0));
 
             List<StringPair> searchfields = new ArrayList<>();
             List<HierarchicalConfiguration> fields = rule.configurationsAt("catalogueField");
@@ -69,6 +72,11 @@ public class ConfigHelper {
             ci.setSteps(Arrays.asList(rule.getStringArray("alwaysExecuteStepList/step")));
             ci.setExportUpdatedRecords(rule.getBoolean("exportUpdatedRecords", false));
             ci.setAnalyseSubElements(rule.getBoolean("analyseSubElements"));
+            ci.setMaxParallelRequests(rule.getInt("analyseSubElements/@maxParallelRequests", 1));
+            ci.setIncrementalPolling(rule.getBoolean("incrementalPolling", false));
+            ci.setStoreTestRunPatches(rule.getBoolean("storeTestRunPatches", false));
+            ci.setTicketBatchSize(rule.getInt("ticketBatchSize", 1));
+            ci.setResponseCacheTtl(rule.getInt("responseCacheTtl", 0));
 
             //quartz job related attributes
             ci.setStartTime(rule.getString("@startTime"));
@@ -35,11 +35,19 @@ public class ConfigInfo {
     private List<String> steps;
     private String fieldListMode;
     private boolean analyseSubElements;
+    private int maxParallelRequests;
+    private boolean incrementalPolling;
+    private boolean storeTestRunPatches;
     private String startTime;
     private int delay;
     private boolean enabled;
     private boolean exportUpdatedRecords;
     private String lastRun;
+    private int ticketBatchSize;
+    private int responseCacheTtl;
+    private int maxConcurrentRequests;
+    private double requestsPerSecond;
+    private int failureThreshold;
 
     private String workflow;
     private String publicationType;
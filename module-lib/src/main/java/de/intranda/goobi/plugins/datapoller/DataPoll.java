@@ -21,6 +21,7 @@ package de.intranda.goobi.plugins.datapoller;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -29,6 +30,7 @@ import java.util.Set;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.lang.StringUtils;
 import org.goobi.api.mq.QueueType;
 import org.goobi.api.mq.TaskTicket;
 import org.goobi.api.mq.TicketGenerator;
@@ -39,7 +41,12 @@ import org.omnifaces.util.Faces;
 
 import de.intranda.goobi.plugins.datapoller.xls.FileManager;
 import de.intranda.goobi.plugins.datapoller.xls.FolderInfo;
+import de.intranda.goobi.plugins.datapoller.xls.OutageWindow;
+import de.intranda.goobi.plugins.datapoller.xls.ReportExporter;
 import de.intranda.goobi.plugins.datapoller.xls.ReportInfo;
+import de.intranda.goobi.plugins.datapoller.xls.ResultPage;
+import de.intranda.goobi.plugins.datapoller.xls.ResultQuery;
+import de.intranda.goobi.plugins.datapoller.xls.RunSummary;
 import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.Helper;
 import de.sub.goobi.helper.StorageProvider;
@@ -51,11 +58,23 @@ import lombok.extern.log4j.Log4j2;
 @Data
 @Log4j2
 public class DataPoll {
+    // number of process ids that are read from the database at once
+    private static final int PROCESS_PAGE_SIZE = 1000;
+
     private XMLConfiguration config;
     private ConfigHelper cHelper;
     private List<PullDiff> differences;
+    private List<OutageWindow> outages;
+    // counters of the run whose results are shown
+    private RunSummary summary;
+    // report whose results are shown and the query for the shown page of its results
+    private FolderInfo displayedReport;
+    private ResultQuery resultQuery = new ResultQuery();
+    private ResultPage resultPage = ResultPage.empty();
+    // run, number of results and query of the loaded page
+    private String loadedResults;
     private boolean ticketStateTestRun;
-    private HashMap<String, Path> xlsxReports = new HashMap<>();
+    private HashMap<String, FolderInfo> xlsxReports = new HashMap<>();
     private HashMap<String, ConfigInfo> ci = new HashMap<>();
     private boolean ticketsActive = false;
     private boolean allowRun = false;
@@ -108,8 +127,20 @@ public class DataPoll {
         executePoll(ruleName, false);
     }
 
+    /**
+     * update the processes with the catalogue records of the last test run. Only processes without a stored record or whose METS file changed
+     * since the test run request the catalogue again.
+     *
+     * @param ruleName
+     */
+    public void applyTestRun(String ruleName) {
+        executePoll(ruleName, false, true);
+    }
+
     public void download(String ruleName) {
-        Path report = this.xlsxReports.get(ruleName);
+        FolderInfo info = this.xlsxReports.get(ruleName);
+        // the report of an unfinished run is written on demand
+        Path report = info != null ? FileManager.getXlsxFile(info) : null;
         if (report != null) {
             try {
                 Faces.sendFile(report.toFile(), true);
@@ -119,33 +150,125 @@ public class DataPoll {
         }
     }
 
+    public void downloadCsv(String ruleName) {
+        export(ruleName, ReportExporter.Format.CSV);
+    }
+
+    public void downloadNdjson(String ruleName) {
+        export(ruleName, ReportExporter.Format.NDJSON);
+    }
+
+    /**
+     * check if the results of the last run of a rule can be exported, see {@link #reportExists(String)}
+     *
+     * @param ruleName
+     * @return
+     */
+    public boolean exportAvailable(String ruleName) {
+        FolderInfo info = this.xlsxReports.get(ruleName);
+        return info != null && info.getRunFolder() != null;
+    }
+
+    /**
+     * send the rows of the report of a rule while they are read from the results of the run, without writing a file first
+     */
+    private void export(String ruleName, ReportExporter.Format format) {
+        FolderInfo info = this.xlsxReports.get(ruleName);
+        if (info == null || info.getRunFolder() == null) {
+            return;
+        }
+        Path runFolder = info.getRunFolder();
+        String fileName = runFolder.getFileName().toString() + "." + format.getExtension();
+        try {
+            Faces.sendFile(fileName, true, output -> ReportExporter.export(runFolder, format, output));
+        } catch (IOException ex) {
+            log.error("DataPollerPlugin: Couldn't export the results of " + runFolder, ex);
+        }
+    }
+
+    /**
+     * check if a report of the last run of a rule exists. The reports are read by {@link #refreshReports()} once before the page is rendered.
+     *
+     * @param ruleName
+     * @return
+     */
     public boolean reportExists(String ruleName) {
+        return this.xlsxReports.containsKey(ruleName);
+    }
+
+    /**
+     * read the state of the reports of all rules and the page of results that is shown
+     */
+    public void refreshReports() {
         HashMap<String, FolderInfo> infos =
                 FileManager.manageTempFiles(Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder()), this.ci.values());
         Set<String> keys = infos.keySet();
         for (String key : keys) {
             FolderInfo info = infos.get(key);
-            this.xlsxReports.put(key, info.getXlsFile());
-            List<PullDiff> diffsForDisplay = info.getDifferences(0);
+            this.xlsxReports.put(key, info);
             ReportInfo rInfo = info.getInfo();
-            if (!diffsForDisplay.isEmpty()) {
-                this.differences = diffsForDisplay;
+            if (info.getDiffSize() > 0) {
+                this.displayedReport = info;
+                this.outages = info.getOutages();
+                this.summary = info.getSummary();
                 if (rInfo != null) {
-                    this.ticketStateUnfinished = (info.getDiffSize() < rInfo.getTicketCount() && this.ticketsActive);
+                    this.ticketStateUnfinished = (!rInfo.isComplete(info.getDiffSize()) && this.ticketsActive);
                     this.ticketStateTestRun = rInfo.isTestRun();
                     allowRun = !ticketStateUnfinished;
                 }
             }
 
         }
+        loadResults();
+    }
 
-        return this.xlsxReports.containsKey(ruleName);
+    /**
+     * show the results that match the current filter, starting with the first page
+     */
+    public void filterResults() {
+        this.resultQuery.setOffset(0);
+        loadResults();
+    }
+
+    public void nextResultPage() {
+        this.resultQuery.setOffset(this.resultPage.getOffset() + this.resultPage.getLimit());
+        loadResults();
+    }
+
+    public void previousResultPage() {
+        this.resultQuery.setOffset(Math.max(0, this.resultPage.getOffset() - this.resultPage.getLimit()));
+        loadResults();
+    }
+
+    /**
+     * read the page of results of the current query. The page is only read again if the query changed or new results arrived.
+     */
+    private void loadResults() {
+        if (this.displayedReport == null) {
+            return;
+        }
+        String runFolder = String.valueOf(this.displayedReport.getRunFolder());
+        if (this.loadedResults != null && !this.loadedResults.startsWith(runFolder + ";")) {
+            // the results of another run are shown now
+            this.resultQuery = new ResultQuery();
+        }
+        String key = runFolder + ";" + this.displayedReport.getDiffSize() + ";" + this.resultQuery;
+        if (key.equals(this.loadedResults)) {
+            return;
+        }
+        this.resultPage = this.displayedReport.query(new ResultQuery(this.resultQuery));
+        this.differences = this.resultPage.getResults();
+        this.loadedResults = key;
     }
 
     /**
      * do the pull of catalogue data to update the records for all rules
      */
     public void executePoll(String ruleName, boolean testRun) {
+        executePoll(ruleName, testRun, false);
+    }
+
+    private void executePoll(String ruleName, boolean testRun, boolean applyTestRun) {
         if (!this.allowRun) {
             log.debug(
                     "DataPollerPlugin: Error starting Poll either the message queue wasn't activated or another catalogue poll job was in progress! ");
@@ -214,11 +337,15 @@ public class DataPoll {
 
         log.debug("Rule '" + info.getTitle() + "' with filter '" + info.getFilter() + "'");
 
+        if (testRun && info.isStoreTestRunPatches()) {
+            // only the records of the latest test run can be applied
+            TestRunPatchStore.getInstance(ruleName).clear();
+        }
+
         // now filter the list of all processes that should be affected and
         // fun through it
         String query = FilterHelper.criteriaBuilder(info.getFilter(), false, null, null, null, true, false);
 
-        List<Integer> processIds = ProcessManager.getIdsForFilter(query);
         long lastRunMillis = System.currentTimeMillis();
         String tempFolder = ConfigurationHelper.getInstance().getTemporaryFolder();
         StringBuilder xmlTempFolder = new StringBuilder();
@@ -226,53 +353,123 @@ public class DataPoll {
                 .append("_")
                 .append(ruleName.toLowerCase().trim().replace(" ", "_"))
                 .append("_")
-                .append(lastRunMillis)
-                .append("_")
-                .append(processIds.size());
+                .append(lastRunMillis);
         Path xmlTempFolderPath = FileManager.createXmlFolder(tempFolder, xmlTempFolder.toString());
         //create reportInfoXml
 
+        // number of processes or hotfolder files that are handled by a single ticket
+        int batchSize = Math.max(1, info.getTicketBatchSize());
+
         ReportInfo rinfo;
         if ("hotfolder".equals(info.getRuleType())) {
             List<Path> hotfolderFiles = FileManager.getHotfolderFiles(info.getPath(), info.getFileHandlingFileFilter());
             rinfo = new ReportInfo(testRun, ruleName, lastRunMillis, hotfolderFiles.size());
             ReportInfo.marshalReportInfo(rinfo, xmlTempFolderPath);
             int index = 0;
-            for (Path hotfolderFile : hotfolderFiles) {
+            for (int start = 0; start < hotfolderFiles.size(); start += batchSize) {
+                List<Path> batch = hotfolderFiles.subList(start, Math.min(start + batchSize, hotfolderFiles.size()));
                 TaskTicket ticket = TicketGenerator.generateSimpleTicket("CatalogueRequest");
-                ticket.setProcessId(--index);
-                ticket.getProperties().put("hotfolderFile", String.valueOf(hotfolderFile.toString()));
+                // hotfolder files are identified by negative indices, the ticket gets the index of its first file
+                ticket.setProcessId(index - 1);
+                index -= batch.size();
+                if (batch.size() == 1) {
+                    ticket.getProperties().put("hotfolderFile", String.valueOf(batch.get(0).toString()));
+                } else {
+                    ticket.getProperties().put("hotfolderFiles", joinValues(batch));
+                }
                 ticket.getProperties().put("createMissingProcesses", String.valueOf(info.isCreateMissingProcesses()));
                 ticket.getProperties().put("publicationType", info.getPublicationType());
                 ticket.getProperties().put("workflow", info.getWorkflow());
                 // add rule configuration to ticket and submit it
-                updateAndSubmitTicket(ticket, info, testRun, isBlockList, lastRunMillis, xmlTempFolderPath);
+                updateAndSubmitTicket(ticket, info, testRun, applyTestRun, isBlockList, lastRunMillis, xmlTempFolderPath);
             }
         } else {
-            rinfo = new ReportInfo(testRun, ruleName, lastRunMillis, processIds.size());
+            // the number of processes is only known when all pages were read, until then the report is marked as incomplete
+            rinfo = new ReportInfo(testRun, ruleName, lastRunMillis, 0);
+            rinfo.setEnumerating(true);
             ReportInfo.marshalReportInfo(rinfo, xmlTempFolderPath);
-            for (Integer id : processIds) {
-                // create a new ticket
-                TaskTicket ticket = TicketGenerator.generateSimpleTicket("CatalogueRequest");
-                ticket.setProcessId(id);
 
-                // add rule configuration to ticket and submit it
-                updateAndSubmitTicket(ticket, info, testRun, isBlockList, lastRunMillis, xmlTempFolderPath);
+            int processCount = 0;
+            int lastProcessId = 0;
+            List<Integer> batch = new ArrayList<>(batchSize);
+            List<Integer> page;
+            do {
+                // read the next page of matching processes and submit their tickets before the following page is requested
+                page = getProcessIdPage(query, lastProcessId);
+                for (Integer id : page) {
+                    batch.add(id);
+                    if (batch.size() == batchSize) {
+                        submitProcessTicket(batch, info, testRun, applyTestRun, isBlockList, lastRunMillis, xmlTempFolderPath);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!page.isEmpty()) {
+                    lastProcessId = page.get(page.size() - 1);
+                    processCount += page.size();
+                }
+            } while (page.size() == PROCESS_PAGE_SIZE);
+            if (!batch.isEmpty()) {
+                submitProcessTicket(batch, info, testRun, applyTestRun, isBlockList, lastRunMillis, xmlTempFolderPath);
             }
+
+            rinfo.setTicketCount(processCount);
+            rinfo.setEnumerating(false);
+            ReportInfo.marshalReportInfo(rinfo, xmlTempFolderPath);
         }
         // write last updated time into the configuration file
         this.cHelper.updateLastRun(ruleName, lastRunMillis);
     }
 
-    private void updateAndSubmitTicket(TaskTicket ticket, ConfigInfo info, boolean testRun, boolean isBlockList, long lastRunMillis,
-            Path xmlTempFolderPath) {
+    /**
+     * get the ids of the next page of processes matching the query, using the id of the last process of the previous page as cursor
+     * 
+     * @param query the filter query of the rule
+     * @param lastProcessId id of the last process of the previous page or 0 for the first page
+     * @return ids of the processes of the page in ascending order
+     */
+    private static List<Integer> getProcessIdPage(String query, int lastProcessId) {
+        // ProcessManager.getIdsForFilter appends the filter to the WHERE clause of its query, so the page is selected with the same joins
+        StringBuilder filter = new StringBuilder();
+        if (StringUtils.isNotBlank(query)) {
+            filter.append("(").append(query).append(") AND ");
+        }
+        filter.append("prozesse.ProzesseID > ").append(lastProcessId);
+        filter.append(" ORDER BY prozesse.ProzesseID LIMIT ").append(PROCESS_PAGE_SIZE);
+        List<Integer> ids = ProcessManager.getIdsForFilter(filter.toString());
+        return ids != null ? ids : new ArrayList<>();
+    }
+
+    private void submitProcessTicket(List<Integer> batch, ConfigInfo info, boolean testRun, boolean applyTestRun, boolean isBlockList,
+            long lastRunMillis, Path xmlTempFolderPath) {
+        // create a new ticket
+        TaskTicket ticket = TicketGenerator.generateSimpleTicket("CatalogueRequest");
+        ticket.setProcessId(batch.get(0));
+        if (batch.size() > 1) {
+            ticket.getProperties().put("processIds", joinValues(batch));
+        }
+
+        // add rule configuration to ticket and submit it
+        updateAndSubmitTicket(ticket, info, testRun, applyTestRun, isBlockList, lastRunMillis, xmlTempFolderPath);
+    }
+
+    private void updateAndSubmitTicket(TaskTicket ticket, ConfigInfo info, boolean testRun, boolean applyTestRun, boolean isBlockList,
+            long lastRunMillis, Path xmlTempFolderPath) {
         // add rule configuration to ticket
+        ticket.getProperties().put("ruleName", info.getTitle());
         ticket.getProperties().put("ruleType", String.valueOf(info.getRuleType()));
         ticket.getProperties().put("mergeRecords", String.valueOf(info.isMergeRecords()));
         ticket.getProperties().put("analyseSubElements", String.valueOf(info.isAnalyseSubElements()));
+        ticket.getProperties().put("maxParallelRequests", String.valueOf(info.getMaxParallelRequests()));
         ticket.getProperties().put("exportUpdatedRecords", String.valueOf(info.isExportUpdatedRecords()));
+        ticket.getProperties().put("incrementalPolling", String.valueOf(info.isIncrementalPolling()));
+        ticket.getProperties().put("responseCacheTtl", String.valueOf(info.getResponseCacheTtl()));
         ticket.getProperties().put("catalogueName", info.getCatalogue());
+        ticket.getProperties().put("maxConcurrentRequests", String.valueOf(info.getMaxConcurrentRequests()));
+        ticket.getProperties().put("requestsPerSecond", String.valueOf(info.getRequestsPerSecond()));
+        ticket.getProperties().put("failureThreshold", String.valueOf(info.getFailureThreshold()));
         ticket.getProperties().put("testRun", String.valueOf(testRun));
+        ticket.getProperties().put("storeTestRunPatches", String.valueOf(info.isStoreTestRunPatches()));
+        ticket.getProperties().put("applyTestRun", String.valueOf(applyTestRun));
         ticket.getProperties().put("blockList", String.valueOf(isBlockList));
         ticket.getProperties().put("lastRunMillis", String.valueOf(lastRunMillis));
         ticket.getProperties().put("xmlTempFolder", xmlTempFolderPath.toString());
@@ -314,6 +511,23 @@ public class DataPoll {
         }
     }
 
+    /**
+     * join a list of values with the separator used for all list properties of a ticket
+     * 
+     * @param values
+     * @return
+     */
+    private static String joinValues(List<?> values) {
+        StringBuilder sb = new StringBuilder();
+        for (Object value : values) {
+            if (sb.length() > 0) {
+                sb.append("|");
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
     /**
      * get the list of all configurations to show it in the GUI
      * 
@@ -324,4 +538,13 @@ public class DataPoll {
         return this.ci.values();
     }
 
+    /**
+     * get the request limits and statistics of all requested catalogues to show them in the GUI
+     *
+     * @return
+     */
+    public List<CatalogueLimiter.Statistics> getCatalogueStatistics() {
+        return CatalogueLimiter.getAllStatistics();
+    }
+
 }
@@ -0,0 +1,199 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.intranda.goobi.plugins.datapoller.xls.XlsData;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlAttribute;
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlValue;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A single change of a field between the old and the new record. The messages of the GUI and the rows of the XLSX report are rendered from it
+ * when they are needed.
+ */
+@Data
+@NoArgsConstructor
+@XmlAccessorType(XmlAccessType.FIELD)
+public class DiffEntry {
+
+    public enum FieldType {
+        METADATA,
+        PERSON,
+        CORPORATE,
+        GROUP
+    }
+
+    public enum ChangeType {
+        // the number of values is different, all old and new values are listed
+        COUNT,
+        // a value of the new record is not in the old record
+        ADDED,
+        // a value of the old record is not in the new record
+        REMOVED
+    }
+
+    @XmlAttribute
+    private String field;
+    @XmlAttribute
+    private FieldType fieldType;
+    @XmlAttribute
+    private ChangeType changeType;
+    @XmlElement(name = "old")
+    private List<DiffValue> oldValues = new ArrayList<>();
+    @XmlElement(name = "new")
+    private List<DiffValue> newValues = new ArrayList<>();
+
+    public DiffEntry(String field, FieldType fieldType, ChangeType changeType) {
+        this.field = field;
+        this.fieldType = fieldType;
+        this.changeType = changeType;
+    }
+
+    /**
+     * render the message that is shown in the GUI and in the process journal
+     *
+     * @return
+     */
+    public String getMessage() {
+        StringBuilder message = new StringBuilder(field).append(": ");
+        switch (changeType) {
+            case COUNT:
+                String noun = fieldType == FieldType.PERSON ? "persons" : fieldType == FieldType.CORPORATE ? "corporates" : "values";
+                if (fieldType == FieldType.GROUP) {
+                    message.append("Number of metadata in old groups (")
+                            .append(oldValues.size())
+                            .append(") is different from new groups (")
+                            .append(newValues.size());
+                } else {
+                    message.append("Number of old ")
+                            .append(noun)
+                            .append(" (")
+                            .append(oldValues.size())
+                            .append(") is different from new ")
+                            .append(noun)
+                            .append(" (")
+                            .append(newValues.size());
+                }
+                message.append(") [Old ").append(noun).append(": ");
+                appendList(message, oldValues);
+                message.append(" => New ").append(noun).append(": ");
+                appendList(message, newValues);
+                message.append("]");
+                break;
+            case ADDED:
+                message.append(fieldType == FieldType.METADATA ? "New metadata value"
+                        : fieldType == FieldType.PERSON ? "New person" : fieldType == FieldType.CORPORATE ? "New corporate" : "New group");
+                message.append(" '");
+                appendValue(message, newValues.get(0));
+                message.append("' found.");
+                break;
+            case REMOVED:
+            default:
+                message.append(fieldType == FieldType.CORPORATE ? "Old corporate '" : "Old value '");
+                appendValue(message, oldValues.get(0));
+                message.append("' was not in the new record anymore.");
+                break;
+        }
+        return message.toString();
+    }
+
+    /**
+     * render the row of the XLSX report
+     *
+     * @return
+     */
+    public XlsData getXlsData() {
+        if (changeType == ChangeType.COUNT) {
+            StringBuilder oldCell = new StringBuilder();
+            appendList(oldCell, oldValues);
+            StringBuilder newCell = new StringBuilder();
+            appendList(newCell, newValues);
+            return new XlsData(field, oldCell.toString(), newCell.toString());
+        }
+        // single values are written without their authority data
+        String oldCell = oldValues.isEmpty() ? "" : oldValues.get(0).getValue();
+        String newCell = newValues.isEmpty() ? "" : newValues.get(0).getValue();
+        return new XlsData(field, oldCell, newCell);
+    }
+
+    private static void appendList(StringBuilder sb, List<DiffValue> values) {
+        for (DiffValue value : values) {
+            appendValue(sb, value);
+            sb.append("; ");
+        }
+    }
+
+    private static void appendValue(StringBuilder sb, DiffValue value) {
+        sb.append(value.getValue());
+        if (value.getAuthority() != null) {
+            sb.append(" (").append(value.getAuthority()).append(")");
+        }
+    }
+
+    /**
+     * a value of a field, persons and corporates can have authority data
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class DiffValue {
+        @XmlValue
+        private String value;
+        @XmlAttribute
+        private String authority;
+
+        public DiffValue(String value) {
+            this.value = value;
+        }
+
+        /**
+         * create the value of a person or corporate
+         *
+         * @param name displayed name
+         * @param authorityUri
+         * @param authorityValue
+         * @return
+         */
+        public static DiffValue withAuthority(String name, String authorityUri, String authorityValue) {
+            if (authorityUri == null && authorityValue == null) {
+                return new DiffValue(name);
+            }
+            StringBuilder authority = new StringBuilder();
+            if (authorityUri != null) {
+                authority.append(authorityUri);
+            }
+            if (authorityUri != null && authorityValue != null) {
+                authority.append(": ");
+            }
+            if (authorityValue != null) {
+                authority.append(authorityValue);
+            }
+            return new DiffValue(name, authority.toString());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.WriteException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Calculates a checksum of a METS file as it would be written, including the anchor file. The checksum covers the whole serialized file, only
+ * the time of writing in the METS header is left out, so that two checksums are equal only if writing the file would not change it.
+ */
+public final class DocumentChecksum {
+    private static final String TEMP_PREFIX = "dataPollerChecksum";
+    // dates of the METS header, they contain the time of writing
+    private static final Pattern HEADER_DATES = Pattern.compile("(CREATEDATE|LASTMODDATE)=\"[^\"]*\"");
+
+    private DocumentChecksum() {
+    }
+
+    /**
+     * calculate the checksum of a METS file
+     *
+     * @param ff
+     * @param prefs preferences to write the file with
+     * @return hex encoded checksum
+     * @throws PreferencesException
+     * @throws WriteException
+     * @throws IOException
+     */
+    public static String of(Fileformat ff, Prefs prefs) throws PreferencesException, WriteException, IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // the file is written under a fixed name into its own folder, the anchor file is named by ugh
+        Path tempFolder = Files.createTempDirectory(Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder()), TEMP_PREFIX);
+        try {
+            MetsMods mm = new MetsMods(prefs);
+            mm.setDigitalDocument(ff.getDigitalDocument());
+            mm.write(tempFolder.resolve("meta.xml").toString());
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(tempFolder)) {
+                files = stream.sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                String content = Files.readString(file, StandardCharsets.UTF_8);
+                digest.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(HEADER_DATES.matcher(content).replaceAll("$1=\"\"").getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+        } finally {
+            try (Stream<Path> stream = Files.walk(tempFolder)) {
+                stream.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,39 @@
+package de.intranda.goobi.plugins.datapoller;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The field list of a rule, prepared once so that every metadata, person, corporate and group can be checked with a single lookup. For a block
+ * list all fields except the listed ones are accepted, for an allow list only the listed ones.
+ */
+public final class FieldFilter {
+    private final Set<String> fields;
+    private final boolean blockList;
+
+    /**
+     * @param fields names of the metadata types, person roles and group types in the field list
+     * @param blockList true if the listed fields shall be skipped, false if only the listed fields shall be handled
+     */
+    public FieldFilter(Collection<String> fields, boolean blockList) {
+        this.fields = fields == null ? Collections.emptySet() : new HashSet<>(fields);
+        this.blockList = blockList;
+    }
+
+    /**
+     * check if a type shall be compared and updated
+     *
+     * @param type name of the metadata type, person role or group type
+     * @return
+     */
+    public boolean accepts(String type) {
+        // if the list is a blackList the behaviour shall be inversed
+        return fields.contains(type) != blockList;
+    }
+
+    public boolean isBlockList() {
+        return blockList;
+    }
+}
@@ -0,0 +1,103 @@
+package de.intranda.goobi.plugins.datapoller;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+
+/**
+ * Access to the methods of the intranda_opac_json plugin and its configuration classes, which are not available at compile time. The method
+ * handles are looked up once per class and shared by all requests and threads.
+ */
+final class JsonOpacMethods {
+    private static final ClassValue<MethodHandle> GET_CONFIG_FOR_OPAC = methodHandle("getConfigForOpac");
+    private static final ClassValue<MethodHandle> GET_FIELD_LIST = methodHandle("getFieldList");
+    private static final ClassValue<MethodHandle> GET_ID = methodHandle("getId");
+    private static final ClassValue<MethodHandle> SET_TEXT = methodHandle("setText", String.class);
+    private static final ClassValue<MethodHandle> SET_SELECTED_FIELD = methodHandle("setSelectedField", String.class);
+    private static final ClassValue<MethodHandle> SEARCH =
+            methodHandle("search", String.class, String.class, ConfigOpacCatalogue.class, Prefs.class);
+
+    private JsonOpacMethods() {
+    }
+
+    static Object getConfigForOpac(Object plugin) throws CatalogueHandlerException {
+        try {
+            return (Object) GET_CONFIG_FOR_OPAC.get(plugin.getClass()).invokeExact(plugin);
+        } catch (Throwable e) {
+            throw wrap("getConfigForOpac", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> getFieldList(Object jsonOpacConfig) throws CatalogueHandlerException {
+        try {
+            return (List<Object>) (Object) GET_FIELD_LIST.get(jsonOpacConfig.getClass()).invokeExact(jsonOpacConfig);
+        } catch (Throwable e) {
+            throw wrap("getFieldList", e);
+        }
+    }
+
+    static String getId(Object searchField) throws CatalogueHandlerException {
+        try {
+            return (String) (Object) GET_ID.get(searchField.getClass()).invokeExact(searchField);
+        } catch (Throwable e) {
+            throw wrap("getId", e);
+        }
+    }
+
+    static void setText(Object searchField, String value) throws CatalogueHandlerException {
+        try {
+            Object ignored = (Object) SET_TEXT.get(searchField.getClass()).invokeExact(searchField, (Object) value);
+        } catch (Throwable e) {
+            throw wrap("setText", e);
+        }
+    }
+
+    static void setSelectedField(Object searchField, String value) throws CatalogueHandlerException {
+        try {
+            Object ignored = (Object) SET_SELECTED_FIELD.get(searchField.getClass()).invokeExact(searchField, (Object) value);
+        } catch (Throwable e) {
+            throw wrap("setSelectedField", e);
+        }
+    }
+
+    static Fileformat search(Object plugin, String field, String value, ConfigOpacCatalogue coc, Prefs prefs) throws CatalogueHandlerException {
+        try {
+            return (Fileformat) (Object) SEARCH.get(plugin.getClass())
+                    .invokeExact(plugin, (Object) field, (Object) value, (Object) coc, (Object) prefs);
+        } catch (Throwable e) {
+            throw wrap("search", e);
+        }
+    }
+
+    private static CatalogueHandlerException wrap(String methodName, Throwable e) {
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new CatalogueHandlerException("Exception while calling " + methodName + " of the json opac plugin inside of catalogue poller plugin", e);
+    }
+
+    /**
+     * create a lazily filled cache with the handle of a public method per class. The handle accepts and returns Object for all types, so that it
+     * can be called without knowing the classes of the plugin.
+     */
+    private static ClassValue<MethodHandle> methodHandle(String name, Class<?>... parameterTypes) {
+        return new ClassValue<MethodHandle>() {
+            @Override
+            protected MethodHandle computeValue(Class<?> type) {
+                try {
+                    Method method = type.getMethod(name, parameterTypes);
+                    MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+                    return handle.asType(handle.type().generic());
+                } catch (NoSuchMethodException | IllegalAccessException e) {
+                    throw new IllegalArgumentException("Method " + name + " is not available in " + type.getName(), e);
+                }
+            }
+        };
+    }
+}
@@ -19,13 +19,23 @@
 package de.intranda.goobi.plugins.datapoller;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
-import de.intranda.goobi.plugins.datapoller.xls.XlsData;
+import de.intranda.goobi.plugins.datapoller.DiffEntry.ChangeType;
+import de.intranda.goobi.plugins.datapoller.DiffEntry.DiffValue;
+import de.intranda.goobi.plugins.datapoller.DiffEntry.FieldType;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import ugh.dl.Corporate;
 import ugh.dl.DocStruct;
 import ugh.dl.Metadata;
@@ -35,10 +45,19 @@ import ugh.dl.Person;
 
 @Data
 public class PollDocStruct {
-    private List<PullMetadataType> types;
-    private List<PullPersonType> personTypes;
-    private List<PullCorporateType> corporateTypes;
-    private List<PullGroup> groupTypes;
+    // the types are indexed by their name and kept in the order in which they were found
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, PullMetadataType> types = new LinkedHashMap<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, PullPersonType> personTypes = new LinkedHashMap<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, PullCorporateType> corporateTypes = new LinkedHashMap<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<String, PullGroup> groupTypes = new LinkedHashMap<>();
 
     /**
      * constructor to fill this data model with a given ugh docstruct
@@ -46,10 +65,6 @@ public class PollDocStruct {
      * @param inStruct
      */
     public PollDocStruct(DocStruct inStruct) {
-        types = new ArrayList<>();
-        personTypes = new ArrayList<>();
-        corporateTypes = new ArrayList<>();
-        groupTypes = new ArrayList<>();
         if (inStruct.getAllMetadata() != null) {
             for (Metadata md : inStruct.getAllMetadata()) {
                 addMetadata(md.getType().getName(), md.getValue());
@@ -136,14 +151,7 @@ public class PollDocStruct {
      * @return
      */
     public PullMetadataType getPullMetadataTypeByTitle(String title) {
-        for (PullMetadataType p : types) {
-            if (p.getTitle().equals(title)) {
-                return p;
-            }
-        }
-        PullMetadataType pmt = new PullMetadataType(title);
-        types.add(pmt);
-        return pmt;
+        return types.computeIfAbsent(title, PullMetadataType::new);
     }
 
     /**
@@ -153,38 +161,31 @@ public class PollDocStruct {
      * @return
      */
     public PullPersonType getPullPersonTypeByRole(String role) {
-        for (PullPersonType p : personTypes) {
-            if (p.getRole().equals(role)) {
-                return p;
-            }
-        }
-        PullPersonType ppt = new PullPersonType(role);
-        personTypes.add(ppt);
-        return ppt;
+        return personTypes.computeIfAbsent(role, PullPersonType::new);
     }
 
     public PullCorporateType getPullCorporateTypeByRole(String role) {
-        for (PullCorporateType c : corporateTypes) {
-            if (c.getRole().equals(role)) {
-                return c;
-            }
-        }
-        PullCorporateType pct = new PullCorporateType(role);
-        corporateTypes.add(pct);
-        return pct;
+        return corporateTypes.computeIfAbsent(role, PullCorporateType::new);
     }
 
     public PullGroup getPullGroupByType(String type) {
+        return groupTypes.computeIfAbsent(type, PullGroup::new);
+    }
 
-        for (PullGroup pg : groupTypes) {
-            if (pg.getGroupType().equals(type)) {
-                return pg;
-            }
-        }
-        PullGroup grp = new PullGroup(type);
-        groupTypes.add(grp);
-        return grp;
+    public List<PullMetadataType> getTypes() {
+        return new ArrayList<>(types.values());
+    }
+
+    public List<PullPersonType> getPersonTypes() {
+        return new ArrayList<>(personTypes.values());
+    }
+
+    public List<PullCorporateType> getCorporateTypes() {
+        return new ArrayList<>(corporateTypes.values());
+    }
 
+    public List<PullGroup> getGroupTypes() {
+        return new ArrayList<>(groupTypes.values());
     }
 
     /**
@@ -196,296 +197,100 @@ public class PollDocStruct {
      */
     public static void checkDifferences(DocStruct topstructNew, DocStruct topstructOld, List<String> fieldFilterList, PullDiff differences,
             boolean isBlockList) {
+        checkDifferences(topstructNew, topstructOld, new FieldFilter(fieldFilterList, isBlockList), differences);
+    }
+
+    /**
+     * Compare the metadata and persons of the two docstructs
+     *
+     * @param topstructNew
+     * @param topstructOld
+     * @param fieldFilter the prepared field list of the rule
+     * @param differences
+     */
+    public static void checkDifferences(DocStruct topstructNew, DocStruct topstructOld, FieldFilter fieldFilter, PullDiff differences) {
+        // most records are unchanged, in this case the data models below don't need to be created
+        if (RecordFingerprint.isEqual(fieldFilter, topstructNew, topstructOld)) {
+            return;
+        }
 
         PollDocStruct pdsOld = new PollDocStruct(topstructOld);
         PollDocStruct pdsNew = new PollDocStruct(topstructNew);
-        // run through the list of metadata fields
 
         // first collect all available metadata types in old and new record
-        Set<String> allTypes = new HashSet<>();
-        for (PullMetadataType pmtNew : pdsNew.getTypes()) {
-            allTypes.add(pmtNew.getTitle());
-        }
-        for (PullMetadataType pmtOld : pdsOld.getTypes()) {
-            allTypes.add(pmtOld.getTitle());
-        }
-
+        Set<String> allTypes = new LinkedHashSet<>(pdsNew.types.keySet());
+        allTypes.addAll(pdsOld.types.keySet());
         for (String oneType : allTypes) {
-            //            log.debug("check metadata type: " + oneType);
-            boolean handleMetadata = fieldFilterList.contains(oneType);
-            // if the list is a blackList the behaviour shall be inversed
-            handleMetadata = (isBlockList) ? !handleMetadata : handleMetadata;
-            if (handleMetadata) {
-                PullMetadataType pmtNew = pdsNew.getPullMetadataTypeByTitle(oneType);
-                PullMetadataType pmtOld = pdsOld.getPullMetadataTypeByTitle(oneType);
-                if (pmtNew.getValues().size() != pmtOld.getValues().size()) {
-                    // number of metadata fields is different
-
-                    String helperOldValues = "";
-                    for (String value : pmtOld.getValues()) {
-                        helperOldValues += value + "; ";
-                    }
-                    String helperNewValues = "";
-                    for (String value : pmtNew.getValues()) {
-                        helperNewValues += value + "; ";
-                    }
-                    differences.getMessages()
-                            .add(pmtNew.getTitle() + ": Number of old values (" + pmtOld.getValues().size() + ") is different from new values ("
-                                    + pmtNew.getValues().size() + ") [Old values: " + helperOldValues + " => New values: " + helperNewValues
-                                    + "]");
-                    differences.getXlsData().add(new XlsData(pmtNew.getTitle(), helperOldValues, helperNewValues));
-                } else {
-                    // number of metadata fields is the same
-                    for (String value : pmtNew.getValues()) {
-                        if (!pmtOld.getValues().contains(value)) {
-                            differences.getMessages().add(pmtNew.getTitle() + ": New metadata value '" + value + "' found.");
-                            differences.getXlsData().add(new XlsData(pmtNew.getTitle(), "", value));
-                        } else {
-                            // remove all fields from old list
-                            pmtOld.getValues().remove(value);
-                        }
-                    }
-                    // if there are still fiels in the old list then these were
-                    // not in the new list
-                    if (pmtOld.getValues().size() > 0) {
-                        for (String value : pmtOld.getValues()) {
-                            differences.getMessages().add(pmtOld.getTitle() + ": Old value '" + value + "' was not in the new record anymore.");
-                            differences.getXlsData().add(new XlsData(pmtNew.getTitle(), value, ""));
-                        }
-                    }
-                }
+            if (fieldFilter.accepts(oneType)) {
+                compareValues(oneType, FieldType.METADATA, pdsNew.getPullMetadataTypeByTitle(oneType).getValues(),
+                        pdsOld.getPullMetadataTypeByTitle(oneType).getValues(), DiffValue::new, differences);
             }
         }
 
         // then collect all available person types in old and new record
-        Set<String> allPersonTypes = new HashSet<>();
-        for (PullPersonType pptNew : pdsNew.getPersonTypes()) {
-            allPersonTypes.add(pptNew.getRole());
-        }
-        for (PullPersonType pptOld : pdsOld.getPersonTypes()) {
-            allPersonTypes.add(pptOld.getRole());
-        }
-
-        // run through all persons
+        Set<String> allPersonTypes = new LinkedHashSet<>(pdsNew.personTypes.keySet());
+        allPersonTypes.addAll(pdsOld.personTypes.keySet());
         for (String ppt : allPersonTypes) {
-            boolean handlePerson = fieldFilterList.contains(ppt);
-            // if the list is a blackList the behaviour shall be inversed
-            handlePerson = (isBlockList) ? !handlePerson : handlePerson;
-            if (handlePerson) {
-                PullPersonType pptNew = pdsNew.getPullPersonTypeByRole(ppt);
-                PullPersonType pptOld = pdsOld.getPullPersonTypeByRole(ppt);
-                if (pptNew.getPersons().size() != pptOld.getPersons().size()) {
-                    // number of person fields is different
-                    String helperOldPersons = "";
-                    for (PullPerson pp : pptOld.getPersons()) {
-                        helperOldPersons += pp.getLastName() + ", " + pp.getFirstName();
-                        if (pp.getAuthorityUrl() != null || pp.getAuthorityValue() != null) {
-                            helperOldPersons += " (";
-                            if (pp.getAuthorityUrl() != null) {
-                                helperOldPersons += pp.getAuthorityUrl();
-                            }
-                            if (pp.getAuthorityUrl() != null && pp.getAuthorityValue() != null) {
-                                helperOldPersons += ": ";
-                            }
-                            if (pp.getAuthorityValue() != null) {
-                                helperOldPersons += pp.getAuthorityValue();
-                            }
-                            helperOldPersons += ")";
-                        }
-                        helperOldPersons += "; ";
-                    }
-                    String helperNewPersons = "";
-                    for (PullPerson pp : pptNew.getPersons()) {
-                        helperNewPersons += pp.getLastName() + ", " + pp.getFirstName();
-                        if (pp.getAuthorityUrl() != null || pp.getAuthorityValue() != null) {
-                            helperNewPersons += " (";
-                            if (pp.getAuthorityUrl() != null) {
-                                helperNewPersons += pp.getAuthorityUrl();
-                            }
-                            if (pp.getAuthorityUrl() != null && pp.getAuthorityValue() != null) {
-                                helperNewPersons += ": ";
-                            }
-                            if (pp.getAuthorityValue() != null) {
-                                helperNewPersons += pp.getAuthorityValue();
-                            }
-                            helperNewPersons += ")";
-                        }
-                        helperNewPersons += "; ";
-                    }
-                    differences.getMessages()
-                            .add(pptNew.getRole() + ": Number of old persons (" + pptOld.getPersons().size() + ") is different from new persons ("
-                                    + pptNew.getPersons().size() + ") [Old persons: " + helperOldPersons + " => New persons: " + helperNewPersons
-                                    + "]");
-                    differences.getXlsData().add(new XlsData(pptNew.getRole(), helperOldPersons, helperNewPersons));
-                } else {
-                    // number of person fields is the same
-                    for (PullPerson pp : pptNew.getPersons()) {
-                        if (!pptOld.getPersons().contains(pp)) {
-                            differences.getMessages()
-                                    .add(pptNew.getRole() + ": New person '" + pp.getLastName() + ", " + pp.getFirstName() + " ("
-                                            + pp.getAuthorityUrl() + ": " + pp.getAuthorityValue() + ")' found.");
-                            differences.getXlsData().add(new XlsData(pptNew.getRole(), "", pp.getLastName() + ", " + pp.getFirstName()));
-                        } else {
-                            // remove all fields from old list
-                            pptOld.getPersons().remove(pp);
-                        }
-                    }
-                    // if there are still fiels in the old list then these were
-                    // not in the new list
-                    if (pptOld.getPersons().size() > 0) {
-                        for (PullPerson pp : pptOld.getPersons()) {
-                            differences.getMessages()
-                                    .add(pptOld.getRole() + ": Old value '" + pp.getLastName() + ", " + pp.getFirstName() + " ("
-                                            + pp.getAuthorityUrl() + ": " + pp.getAuthorityValue() + ")' was not in the new record anymore.");
-                            differences.getXlsData().add(new XlsData(pptOld.getRole(), "", pp.getLastName() + ", " + pp.getFirstName()));
-                        }
-                    }
-                }
+            if (fieldFilter.accepts(ppt)) {
+                compareValues(ppt, FieldType.PERSON, pdsNew.getPullPersonTypeByRole(ppt).getPersons(),
+                        pdsOld.getPullPersonTypeByRole(ppt).getPersons(),
+                        pp -> DiffValue.withAuthority(pp.getLastName() + ", " + pp.getFirstName(), pp.getAuthorityUrl(), pp.getAuthorityValue()),
+                        differences);
             }
         }
 
         // then collect all available corporate types in old and new record
-        Set<String> allCorporateTypes = new HashSet<>();
-        for (PullCorporateType pctNew : pdsNew.getCorporateTypes()) {
-            allCorporateTypes.add(pctNew.getRole());
-        }
-        for (PullCorporateType pctOld : pdsOld.getCorporateTypes()) {
-            allCorporateTypes.add(pctOld.getRole());
-        }
-
-        // run through all corporates
+        Set<String> allCorporateTypes = new LinkedHashSet<>(pdsNew.corporateTypes.keySet());
+        allCorporateTypes.addAll(pdsOld.corporateTypes.keySet());
         for (String pct : allCorporateTypes) {
-            boolean handleCorporate = fieldFilterList.contains(pct);
-            // if the list is a blackList the behaviour shall be inversed
-            handleCorporate = (isBlockList) ? !handleCorporate : handleCorporate;
-            if (handleCorporate) {
-                PullCorporateType pctNew = pdsNew.getPullCorporateTypeByRole(pct);
-                PullCorporateType pctOld = pdsOld.getPullCorporateTypeByRole(pct);
-                if (pctNew.getCorporates().size() != pctOld.getCorporates().size()) {
-                    // number of corporate fields is different
-                    String helperOldCorporates = "";
-                    for (PullCorporate pc : pctOld.getCorporates()) {
-                        helperOldCorporates += pc.getMainName();
-                        if (pc.getAuthorityUri() != null || pc.getAuthorityValue() != null) {
-                            helperOldCorporates += " (";
-                            if (pc.getAuthorityUri() != null) {
-                                helperOldCorporates += pc.getAuthorityUri();
-                            }
-                            if (pc.getAuthorityUri() != null && pc.getAuthorityValue() != null) {
-                                helperOldCorporates += ": ";
-                            }
-                            if (pc.getAuthorityValue() != null) {
-                                helperOldCorporates += pc.getAuthorityValue();
-                            }
-                            helperOldCorporates += ")";
-                        }
-                        helperOldCorporates += "; ";
-                    }
-                    String helperNewCorporates = "";
-                    for (PullCorporate pc : pctNew.getCorporates()) {
-                        helperNewCorporates += pc.getMainName();
-                        if (pc.getAuthorityUri() != null || pc.getAuthorityValue() != null) {
-                            helperNewCorporates += " (";
-                            if (pc.getAuthorityUri() != null) {
-                                helperNewCorporates += pc.getAuthorityUri();
-                            }
-                            if (pc.getAuthorityUri() != null && pc.getAuthorityValue() != null) {
-                                helperNewCorporates += ": ";
-                            }
-                            if (pc.getAuthorityValue() != null) {
-                                helperNewCorporates += pc.getAuthorityValue();
-                            }
-                            helperNewCorporates += ")";
-                        }
-                        helperNewCorporates += "; ";
-                    }
-                    differences.getMessages()
-                            .add(pctNew.getRole() + ": Number of old corporates (" + pctOld.getCorporates().size()
-                                    + ") is different from new corporates (" + pctNew.getCorporates().size() + ") [Old corporates: "
-                                    + helperOldCorporates + " => New corporates: " + helperNewCorporates + "]");
-                    differences.getXlsData().add(new XlsData(pctNew.getRole(), helperOldCorporates, helperNewCorporates));
-                } else {
-                    // number of corporate fields is the same
-                    for (PullCorporate pc : pctNew.getCorporates()) {
-                        if (!pctOld.getCorporates().contains(pc)) {
-                            differences.getMessages()
-                                    .add(pctNew.getRole() + ": New corporate '" + pc.getMainName() + " (" + pc.getAuthorityUri() + ": "
-                                            + pc.getAuthorityValue() + ")' found.");
-                            differences.getXlsData().add(new XlsData(pctNew.getRole(), "", pc.getMainName()));
-                        } else {
-                            // remove all fields from old list
-                            pctOld.getCorporates().remove(pc);
-                        }
-                    }
-                    // if there are still fields in the old list then these were
-                    // not in the new list
-                    if (pctOld.getCorporates().size() > 0) {
-                        for (PullCorporate pc : pctOld.getCorporates()) {
-                            differences.getMessages()
-                                    .add(pctOld.getRole() + ": Old corporate '" + pc.getMainName() + " (" + pc.getAuthorityUri() + ": "
-                                            + pc.getAuthorityValue() + ")' was not in the new record anymore.");
-                            differences.getXlsData().add(new XlsData(pctOld.getRole(), pc.getMainName(), ""));
-                        }
-                    }
-                }
+            if (fieldFilter.accepts(pct)) {
+                compareValues(pct, FieldType.CORPORATE, pdsNew.getPullCorporateTypeByRole(pct).getCorporates(),
+                        pdsOld.getPullCorporateTypeByRole(pct).getCorporates(),
+                        pc -> DiffValue.withAuthority(pc.getMainName(), pc.getAuthorityUri(), pc.getAuthorityValue()), differences);
             }
         }
 
         // then collect all available group types in old and new record
-        Set<String> allGroupTypes = new HashSet<>();
-        for (PullGroup pgtNew : pdsNew.getGroupTypes()) {
-            allGroupTypes.add(pgtNew.getGroupType());
-        }
-        for (PullGroup pgtOld : pdsOld.getGroupTypes()) {
-            allGroupTypes.add(pgtOld.getGroupType());
+        Set<String> allGroupTypes = new LinkedHashSet<>(pdsNew.groupTypes.keySet());
+        allGroupTypes.addAll(pdsOld.groupTypes.keySet());
+        for (String type : allGroupTypes) {
+            if (fieldFilter.accepts(type)) {
+                compareValues(type, FieldType.GROUP, pdsNew.getPullGroupByType(type).getMetadataHashs(),
+                        pdsOld.getPullGroupByType(type).getMetadataHashs(), DiffValue::new, differences);
+            }
         }
+    }
 
-        // check new groups
-        for (String type : allGroupTypes) {
-            boolean handleGroup = fieldFilterList.contains(type);
-            // if the list is a blackList the behaviour shall be inversed
-            handleGroup = (isBlockList) ? !handleGroup : handleGroup;
-            if (handleGroup) {
-                // find old groups of the type
-                PullGroup newGroup = pdsNew.getPullGroupByType(type);
-                PullGroup oldGroup = pdsOld.getPullGroupByType(type);
-                if (newGroup.getMetadataHashs().size() != oldGroup.getMetadataHashs().size()) {
-                    // if the sizes of the groups are different
-
-                    String helperOldGroups = "";
-                    for (String value : oldGroup.getMetadataHashs()) {
-                        helperOldGroups += value + "; ";
-                    }
-                    String helperNewGroups = "";
-                    for (String value : newGroup.getMetadataHashs()) {
-                        helperNewGroups += value + "; ";
-                    }
-
-                    differences.getMessages()
-                            .add(newGroup.getGroupType() + ": Number of metadata in old groups (" + oldGroup.getMetadataHashs().size()
-                                    + ") is different from new groups (" + newGroup.getMetadataHashs().size() + ") [Old values: "
-                                    + helperOldGroups + " => New values: " + helperNewGroups + "]");
-                    differences.getXlsData().add(new XlsData(newGroup.getGroupType(), helperOldGroups, helperNewGroups));
-                } else {
-                    for (String metadata : newGroup.getMetadataHashs()) {
-                        if (!oldGroup.getMetadataHashs().contains(metadata)) {
-                            differences.getMessages().add(newGroup.getGroupType() + ": New group '" + metadata + "' found.");
-                            differences.getXlsData().add(new XlsData(newGroup.getGroupType(), "", metadata));
-                        } else {
-                            oldGroup.getMetadataHashs().remove(metadata);
-                        }
-                    }
-
-                    // if there are still fiels in the old list then these were
-                    // not in the new list
-                    if (oldGroup.getMetadataHashs().size() > 0) {
-                        for (String pp : oldGroup.getMetadataHashs()) {
-                            differences.getMessages().add(oldGroup.getGroupType() + ": Old value '" + pp + "' was not in the new record anymore.");
-                            differences.getXlsData().add(new XlsData(oldGroup.getGroupType(), pp, ""));
-                        }
-                    }
-                }
+    /**
+     * compare the values of one field. If the number of values is different, a single entry with all values is created, otherwise an entry for
+     * every added and every removed value. The old values are consumed by the comparison.
+     */
+    private static <T> void compareValues(String field, FieldType fieldType, Collection<T> newValues, Collection<T> oldValues,
+            Function<T, DiffValue> toValue, PullDiff differences) {
+        if (newValues.size() != oldValues.size()) {
+            DiffEntry entry = new DiffEntry(field, fieldType, ChangeType.COUNT);
+            for (T value : oldValues) {
+                entry.getOldValues().add(toValue.apply(value));
+            }
+            for (T value : newValues) {
+                entry.getNewValues().add(toValue.apply(value));
             }
+            differences.getEntries().add(entry);
+            return;
+        }
+        for (T value : newValues) {
+            // remove all found values from the old list
+            if (!oldValues.remove(value)) {
+                DiffEntry entry = new DiffEntry(field, fieldType, ChangeType.ADDED);
+                entry.getNewValues().add(toValue.apply(value));
+                differences.getEntries().add(entry);
+            }
+        }
+        // if there are still values in the old list then these were not in the new list
+        for (T value : oldValues) {
+            DiffEntry entry = new DiffEntry(field, fieldType, ChangeType.REMOVED);
+            entry.getOldValues().add(toValue.apply(value));
+            differences.getEntries().add(entry);
         }
     }
 
@@ -18,27 +18,24 @@
  */
 package de.intranda.goobi.plugins.datapoller;
 
-import java.io.File;
-import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
+import de.intranda.goobi.plugins.datapoller.xls.RunResultLog;
 import de.intranda.goobi.plugins.datapoller.xls.XlsData;
-import de.sub.goobi.helper.StorageProvider;
-import de.sub.goobi.helper.StorageProviderInterface;
-import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
-import jakarta.xml.bind.Marshaller;
-import jakarta.xml.bind.Unmarshaller;
 import jakarta.xml.bind.annotation.XmlAccessType;
 import jakarta.xml.bind.annotation.XmlAccessorType;
 import jakarta.xml.bind.annotation.XmlElement;
 import jakarta.xml.bind.annotation.XmlElementWrapper;
 import jakarta.xml.bind.annotation.XmlRootElement;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 
 @Data
@@ -47,17 +44,31 @@ import lombok.extern.log4j.Log4j2;
 @NoArgsConstructor
 @XmlAccessorType(XmlAccessType.FIELD)
 public class PullDiff {
+    // shared by the ticket workers that write the results and the reports that read them
+    public static final XmlMapper<PullDiff> XML_MAPPER = new XmlMapper<>(PullDiff.class, false);
+
     private int processId;
     private String processTitle;
     private boolean failed;
     private boolean mergeRecords;
     private String debugMessage;
+    // start and end of the catalogue outage that prevented the request, 0 if the catalogue was available
+    private long outageStart;
+    private long outageEnd;
+    @XmlElementWrapper(name = "entries")
+    @XmlElement(name = "entry")
+    private List<DiffEntry> entries = new ArrayList<>();
+    // rendered messages and rows without a structured entry, e.g. from the reports of older versions
     @XmlElementWrapper(name = "messages")
     @XmlElement(name = "message")
-    private List<String> messages = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private List<String> renderedMessages;
     @XmlElementWrapper(name = "xlsDataEntries")
     @XmlElement(name = "xlsData")
-    private List<XlsData> xlsData = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private List<XlsData> renderedXlsData;
 
     public PullDiff(Integer processId, String processTitle, boolean failed, String debugMessage) {
         reset(processId, processTitle, failed, debugMessage);
@@ -70,39 +81,86 @@ public class PullDiff {
         this.debugMessage = debugMessage;
     }
 
-    public static void marshalPullDiff(PullDiff diff, String xmlTempFolder, String lastRunMillis) {
-        Path outputPath = Paths.get(xmlTempFolder);
-        StorageProviderInterface spi = StorageProvider.getInstance();
-        try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(PullDiff.class);
-            Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-            jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            // StringWriter sw = new StringWriter();
-            // jaxbMarshaller.marshal(diff, sw);
-
-            //Check if Folder exists and if not try to create it
+    /**
+     * check if differences between the catalogue record and the METS file were found
+     *
+     * @return
+     */
+    public boolean hasDifferences() {
+        return !entries.isEmpty() || (renderedMessages != null && !renderedMessages.isEmpty());
+    }
 
-            if (!spi.isFileExists(outputPath)) {
-                spi.createDirectories(outputPath);
-            }
-            StringBuilder fileName = new StringBuilder();
-            fileName.append(diff.getProcessId()).append("_").append(lastRunMillis).append(".xml");
+    /**
+     * render the messages of all differences
+     *
+     * @return
+     */
+    public List<String> getMessages() {
+        List<String> messages = new ArrayList<>();
+        if (renderedMessages != null) {
+            messages.addAll(renderedMessages);
+        }
+        for (DiffEntry entry : entries) {
+            messages.add(entry.getMessage());
+        }
+        return messages;
+    }
 
-            Path fileOutputPath = outputPath.resolve(fileName.toString());
-            jaxbMarshaller.marshal(diff, new File(fileOutputPath.toString()));
-        } catch (JAXBException ex) {
-            log.error("DataPollerPlugin: Couldn't marshal Object to xml!", ex);
-        } catch (IOException ex) {
-            log.error("DataPollerPlugin: Couldn't write xml-File into folder: " + outputPath.toString());
+    /**
+     * render the rows of the XLSX report of all differences
+     *
+     * @return
+     */
+    public List<XlsData> getXlsData() {
+        List<XlsData> xlsData = new ArrayList<>();
+        if (renderedXlsData != null) {
+            xlsData.addAll(renderedXlsData);
         }
+        for (DiffEntry entry : entries) {
+            xlsData.add(entry.getXlsData());
+        }
+        return xlsData;
+    }
+
+    /**
+     * set rows of the XLSX report that have no structured entry
+     *
+     * @param xlsData
+     */
+    public void setXlsData(List<XlsData> xlsData) {
+        this.renderedXlsData = xlsData;
+    }
+
+    /**
+     * check if the process was skipped, because the catalogue was unavailable
+     *
+     * @return
+     */
+    public boolean isSkippedByOutage() {
+        return outageStart > 0;
+    }
+
+    /**
+     * append the result of a process to the result log of its run
+     *
+     * @param diff
+     * @param xmlTempFolder folder of the run
+     * @param lastRunMillis start of the run
+     */
+    public static void marshalPullDiff(PullDiff diff, String xmlTempFolder, String lastRunMillis) {
+        RunResultLog.append(Paths.get(xmlTempFolder), diff);
     }
 
+    /**
+     * read the result of a process from a single file, as written by older versions of the plugin
+     *
+     * @param PullDiffXml
+     * @return
+     */
     public static PullDiff unmarshalPullDiff(Path PullDiffXml) {
         PullDiff diff;
         try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(PullDiff.class);
-            Unmarshaller jaxbUnMarshaller = jaxbContext.createUnmarshaller();
-            diff = (PullDiff) jaxbUnMarshaller.unmarshal(PullDiffXml.toFile());
+            diff = XML_MAPPER.unmarshal(PullDiffXml.toFile());
         } catch (JAXBException ex) {
             log.error("DataPollerPlugin: Couldn't unmarshal Object from xml: " + PullDiffXml.toString(), ex);
             return null;
@@ -0,0 +1,197 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import ugh.dl.Corporate;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataGroup;
+import ugh.dl.NamePart;
+import ugh.dl.Person;
+
+/**
+ * Calculates a 128 bit fingerprint over all metadata, persons, corporates and groups of one or more docstructs that are handled by the field
+ * filter of a rule. The fingerprint is calculated in a single pass without intermediate collections or strings: every value is hashed on its own
+ * and the hashes of a docstruct are added up, so the order of the values is not relevant for the fingerprint.
+ */
+public final class RecordFingerprint {
+    // markers for the kind of an entry and for missing values
+    private static final char METADATA = 'M';
+    private static final char PERSON = 'P';
+    private static final char CORPORATE = 'C';
+    private static final char GROUP = 'G';
+    private static final int NULL_VALUE = -1;
+
+    private static final long SEED_LOW = 0x9E3779B97F4A7C15L;
+    private static final long SEED_HIGH = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_LOW = 0x100000001B3L;
+    private static final long PRIME_HIGH = 0x9FB21C651E98DF25L;
+
+    // sum of the hashes of all entries of the current docstruct
+    private long sumLow;
+    private long sumHigh;
+    // hash of the current entry
+    private long low;
+    private long high;
+
+    private RecordFingerprint() {
+    }
+
+    /**
+     * calculate the fingerprint of the given docstructs, docstructs that are null are skipped
+     *
+     * @param fieldFilter the prepared field list of the rule
+     * @param docstructs
+     * @return hex encoded fingerprint
+     */
+    public static String of(FieldFilter fieldFilter, DocStruct... docstructs) {
+        long resultLow = 0;
+        long resultHigh = 0;
+        RecordFingerprint fingerprint = new RecordFingerprint();
+        for (DocStruct ds : docstructs) {
+            fingerprint.addDocStruct(ds, fieldFilter);
+            // the docstructs are combined in their order, so that e.g. the anchor and the topstruct can't be swapped
+            resultLow = mix(resultLow * PRIME_LOW + fingerprint.sumLow);
+            resultHigh = mix(resultHigh * PRIME_HIGH + fingerprint.sumHigh);
+        }
+        return String.format("%016x%016x", resultHigh, resultLow);
+    }
+
+    /**
+     * check if two docstructs have the same values in all fields that are handled by the field filter
+     *
+     * @param fieldFilter the prepared field list of the rule
+     * @param first
+     * @param second
+     * @return true if the fingerprints are equal
+     */
+    public static boolean isEqual(FieldFilter fieldFilter, DocStruct first, DocStruct second) {
+        RecordFingerprint fingerprint = new RecordFingerprint();
+        fingerprint.addDocStruct(first, fieldFilter);
+        long firstLow = fingerprint.sumLow;
+        long firstHigh = fingerprint.sumHigh;
+        fingerprint.addDocStruct(second, fieldFilter);
+        return firstLow == fingerprint.sumLow && firstHigh == fingerprint.sumHigh;
+    }
+
+    private void addDocStruct(DocStruct ds, FieldFilter fieldFilter) {
+        sumLow = 0;
+        sumHigh = 0;
+        if (ds == null) {
+            return;
+        }
+        if (ds.getAllMetadata() != null) {
+            for (Metadata md : ds.getAllMetadata()) {
+                String type = md.getType().getName();
+                if (fieldFilter.accepts(type)) {
+                    startEntry(METADATA, type);
+                    add(md.getValue());
+                    finishEntry();
+                }
+            }
+        }
+        if (ds.getAllPersons() != null) {
+            for (Person p : ds.getAllPersons()) {
+                String type = p.getType().getName();
+                if (fieldFilter.accepts(type)) {
+                    startEntry(PERSON, type);
+                    add(p.getFirstname());
+                    add(p.getLastname());
+                    add(p.getAuthorityURI());
+                    add(p.getAuthorityValue());
+                    finishEntry();
+                }
+            }
+        }
+        if (ds.getAllCorporates() != null) {
+            for (Corporate c : ds.getAllCorporates()) {
+                String type = c.getType().getName();
+                if (fieldFilter.accepts(type)) {
+                    startEntry(CORPORATE, type);
+                    add(c.getMainName());
+                    for (NamePart np : c.getSubNames()) {
+                        add(np.getValue());
+                    }
+                    add(c.getPartName());
+                    add(c.getAuthorityURI());
+                    add(c.getAuthorityValue());
+                    finishEntry();
+                }
+            }
+        }
+        if (ds.getAllMetadataGroups() != null) {
+            for (MetadataGroup group : ds.getAllMetadataGroups()) {
+                String type = group.getType().getName();
+                if (fieldFilter.accepts(type)) {
+                    startEntry(GROUP, type);
+                    for (Metadata md : group.getMetadataList()) {
+                        add(md.getType().getName());
+                        add(md.getValue());
+                    }
+                    finishEntry();
+                }
+            }
+        }
+    }
+
+    private void startEntry(char kind, String type) {
+        low = SEED_LOW;
+        high = SEED_HIGH;
+        addChar(kind);
+        add(type);
+    }
+
+    /**
+     * add a value to the current entry. The length is hashed first, so that the borders between the values of an entry are part of the hash.
+     */
+    private void add(String value) {
+        if (value == null) {
+            addChar(NULL_VALUE);
+            return;
+        }
+        addChar(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            addChar(value.charAt(i));
+        }
+    }
+
+    private void addChar(int c) {
+        low = (low ^ c) * PRIME_LOW;
+        high = Long.rotateLeft(high + c * PRIME_HIGH, 31) * SEED_LOW;
+    }
+
+    private void finishEntry() {
+        // addition is commutative, the order of the entries doesn't change the sum
+        sumLow += mix(low);
+        sumHigh += mix(high ^ low);
+    }
+
+    /**
+     * final mixing step of MurmurHash3, spreads every input bit over the whole value
+     */
+    private static long mix(long value) {
+        long k = value;
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import ugh.dl.Corporate;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataGroup;
+import ugh.dl.NamePart;
+import ugh.dl.Person;
+import ugh.exceptions.DocStructHasNoTypeException;
+import ugh.exceptions.IncompletePersonObjectException;
+import ugh.exceptions.MetadataTypeNotAllowedException;
+
+/**
+ * Merges the fields of a catalogue record into a docstruct of the METS file. The old and new entries are grouped by their type in a single pass,
+ * then the entries of every type that is handled by the field filter are replaced by the new ones. Types with the same values in both records are
+ * left untouched.
+ */
+public final class RecordMerger {
+
+    private RecordMerger() {
+    }
+
+    /**
+     * replace the metadata, persons, corporates and groups of the old docstruct with the ones of the new docstruct
+     *
+     * @param fieldFilter the prepared field list of the rule
+     * @param docstructOld docstruct of the METS file, it gets updated
+     * @param docstructNew docstruct of the catalogue record
+     * @return number of removed and added entries
+     */
+    public static int merge(FieldFilter fieldFilter, DocStruct docstructOld, DocStruct docstructNew) {
+        int changes = mergeType(fieldFilter, docstructOld.getAllMetadata(), docstructNew.getAllMetadata(), md -> md.getType().getName(),
+                RecordMerger::getKey, md -> docstructOld.removeMetadata(md, true), md -> {
+                    try {
+                        docstructOld.addMetadata(md);
+                        return true;
+                    } catch (MetadataTypeNotAllowedException | DocStructHasNoTypeException e) {
+                        // ignore metadata not allowed errors
+                        return false;
+                    }
+                });
+
+        changes += mergeType(fieldFilter, docstructOld.getAllPersons(), docstructNew.getAllPersons(), p -> p.getType().getName(),
+                RecordMerger::getKey, docstructOld::removePerson, p -> {
+                    try {
+                        docstructOld.addPerson(p);
+                        return true;
+                    } catch (MetadataTypeNotAllowedException | IncompletePersonObjectException e) {
+                        return false;
+                    }
+                });
+
+        changes += mergeType(fieldFilter, docstructOld.getAllCorporates(), docstructNew.getAllCorporates(), c -> c.getType().getName(),
+                RecordMerger::getKey, docstructOld::removeCorporate, c -> {
+                    try {
+                        docstructOld.addCorporate(c);
+                        return true;
+                    } catch (MetadataTypeNotAllowedException | IncompletePersonObjectException e) {
+                        return false;
+                    }
+                });
+
+        changes += mergeType(fieldFilter, docstructOld.getAllMetadataGroups(), docstructNew.getAllMetadataGroups(), g -> g.getType().getName(),
+                RecordMerger::getKey, g -> docstructOld.removeMetadataGroup(g, true), g -> {
+                    try {
+                        docstructOld.addMetadataGroup(g);
+                        return true;
+                    } catch (MetadataTypeNotAllowedException | DocStructHasNoTypeException e) {
+                        return false;
+                    }
+                });
+        return changes;
+    }
+
+    private static <T> int mergeType(FieldFilter fieldFilter, List<T> oldEntries, List<T> newEntries, Function<T, String> typeName,
+            Function<T, String> key, Consumer<T> remove, Predicate<T> add) {
+        Map<String, List<T>> oldByType = groupByType(fieldFilter, oldEntries, typeName);
+        Map<String, List<T>> newByType = groupByType(fieldFilter, newEntries, typeName);
+        Set<String> allTypes = new LinkedHashSet<>(oldByType.keySet());
+        allTypes.addAll(newByType.keySet());
+
+        int changes = 0;
+        for (String type : allTypes) {
+            List<T> oldOfType = oldByType.getOrDefault(type, Collections.emptyList());
+            List<T> newOfType = newByType.getOrDefault(type, Collections.emptyList());
+            if (hasSameValues(oldOfType, newOfType, key)) {
+                continue;
+            }
+            for (T entry : oldOfType) {
+                remove.accept(entry);
+                changes++;
+            }
+            for (T entry : newOfType) {
+                if (add.test(entry)) {
+                    changes++;
+                }
+            }
+        }
+        return changes;
+    }
+
+    private static <T> Map<String, List<T>> groupByType(FieldFilter fieldFilter, List<T> entries, Function<T, String> typeName) {
+        Map<String, List<T>> byType = new LinkedHashMap<>();
+        if (entries != null) {
+            for (T entry : entries) {
+                String type = typeName.apply(entry);
+                if (fieldFilter.accepts(type)) {
+                    byType.computeIfAbsent(type, t -> new ArrayList<>()).add(entry);
+                }
+            }
+        }
+        return byType;
+    }
+
+    private static <T> boolean hasSameValues(List<T> oldOfType, List<T> newOfType, Function<T, String> key) {
+        if (oldOfType.size() != newOfType.size()) {
+            return false;
+        }
+        for (int i = 0; i < oldOfType.size(); i++) {
+            if (!key.apply(oldOfType.get(i)).equals(key.apply(newOfType.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getKey(Metadata md) {
+        return md.getValue() + '\u0000' + md.getAuthorityURI() + '\u0000' + md.getAuthorityValue();
+    }
+
+    private static String getKey(Person p) {
+        StringBuilder key = new StringBuilder().append(p.getFirstname()).append('\u0000').append(p.getLastname()).append('\u0000')
+                .append(p.getDisplayname()).append('\u0000').append(p.getAuthorityURI()).append('\u0000').append(p.getAuthorityValue());
+        if (p.getAdditionalNameParts() != null) {
+            for (NamePart np : p.getAdditionalNameParts()) {
+                key.append('\u0000').append(np.getType()).append('=').append(np.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    private static String getKey(Corporate c) {
+        StringBuilder key = new StringBuilder().append(c.getMainName());
+        for (NamePart np : c.getSubNames()) {
+            key.append('\u0000').append(np.getValue());
+        }
+        return key.append('\u0000').append(c.getPartName()).append('\u0000').append(c.getAuthorityURI()).append('\u0000')
+                .append(c.getAuthorityValue()).toString();
+    }
+
+    private static String getKey(MetadataGroup group) {
+        StringBuilder key = new StringBuilder();
+        for (Metadata md : group.getMetadataList()) {
+            key.append(md.getType().getName()).append('=').append(getKey(md)).append('\u0001');
+        }
+        if (group.getPersonList() != null) {
+            for (Person p : group.getPersonList()) {
+                key.append(p.getType().getName()).append('=').append(getKey(p)).append('\u0001');
+            }
+        }
+        if (group.getCorporateList() != null) {
+            for (Corporate c : group.getCorporateList()) {
+                key.append(c.getType().getName()).append('=').append(getKey(c)).append('\u0001');
+            }
+        }
+        if (group.getAllMetadataGroups() != null) {
+            // nested groups are enclosed, so that their entries can't be confused with the entries of the outer group
+            for (MetadataGroup nested : group.getAllMetadataGroups()) {
+                key.append(nested.getType().getName()).append("=[").append(getKey(nested)).append(']').append('\u0001');
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Persistent store with the fingerprints of the catalogue record and of the METS file of every process after the last run of a rule. Each rule
+ * has its own append only file in the temporary folder of Goobi, the last line of a process wins. The file is compacted when it contains more
+ * outdated than current lines.
+ *
+ * The file is kept open for appending while the tickets of a run update it. It is closed when the report of the run is complete, see
+ * {@link #close(String)}, or when it wasn't updated for a minute.
+ */
+@Log4j2
+public class RecordStateStore {
+    private static final String STATE_FOLDER = "dataPollerState";
+    // files that are not updated for this time are closed
+    private static final long IDLE_MILLIS = 60000;
+    private static final Map<String, RecordStateStore> STORES = new ConcurrentHashMap<>();
+    // stores with an open file
+    private static final Set<RecordStateStore> OPEN_STORES = ConcurrentHashMap.newKeySet();
+    // started with the first opened file and stopped as soon as all files are closed, so that no thread keeps the plugin loaded
+    private static ScheduledExecutorService closeExecutor;
+
+    private final Path stateFile;
+    // processId -> fingerprint of the catalogue record and fingerprint of the METS file
+    private final Map<Integer, String[]> states = new HashMap<>();
+    private int obsoleteLines = 0;
+    private boolean loaded = false;
+    private FileChannel channel;
+    private long lastUse;
+
+    private RecordStateStore(Path stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * get the store of a rule
+     *
+     * @param ruleName
+     * @return
+     */
+    public static RecordStateStore getInstance(String ruleName) {
+        return STORES.computeIfAbsent(ruleName, name -> new RecordStateStore(Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(),
+                STATE_FOLDER, name.toLowerCase().trim().replace(" ", "_") + ".txt")));
+    }
+
+    /**
+     * check if the catalogue record and the METS file of a process are still the same as after the last run
+     *
+     * @param processId
+     * @param catalogueFingerprint fingerprint of the current catalogue record
+     * @param metsFingerprint fingerprint of the current METS file
+     * @return true if both fingerprints are unchanged
+     */
+    public synchronized boolean isUnchanged(int processId, String catalogueFingerprint, String metsFingerprint) {
+        load();
+        String[] state = states.get(processId);
+        return state != null && state[0].equals(catalogueFingerprint) && state[1].equals(metsFingerprint);
+    }
+
+    /**
+     * remember the fingerprints of a process after it was handled
+     *
+     * @param processId
+     * @param catalogueFingerprint fingerprint of the catalogue record
+     * @param metsFingerprint fingerprint of the METS file after the update
+     */
+    public synchronized void update(int processId, String catalogueFingerprint, String metsFingerprint) {
+        load();
+        if (states.put(processId, new String[] { catalogueFingerprint, metsFingerprint }) != null) {
+            obsoleteLines++;
+        }
+        try {
+            if (channel == null) {
+                Files.createDirectories(stateFile.getParent());
+                channel = FileChannel.open(stateFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                opened(this);
+            }
+            lastUse = System.currentTimeMillis();
+            // a line is written with a single call, so that an interrupted write leaves at most one incomplete line
+            ByteBuffer line = StandardCharsets.UTF_8.encode(processId + "\t" + catalogueFingerprint + "\t" + metsFingerprint + "\n");
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            if (obsoleteLines > states.size()) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.error("DataPollerPlugin: Couldn't update the record state file {}", stateFile, e);
+            closeChannel();
+        }
+    }
+
+    /**
+     * close the state file of a rule, e.g. when its run is finished. The file is opened again by the next update.
+     *
+     * @param ruleName
+     */
+    public static void close(String ruleName) {
+        RecordStateStore store = STORES.get(ruleName);
+        if (store != null) {
+            synchronized (store) {
+                store.closeChannel();
+            }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("DataPollerPlugin: Couldn't close the record state file {}", stateFile, e);
+            }
+            channel = null;
+            closed(this);
+        }
+    }
+
+    private static void opened(RecordStateStore store) {
+        synchronized (OPEN_STORES) {
+            OPEN_STORES.add(store);
+            if (closeExecutor == null) {
+                closeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "DataPoller record state close");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                closeExecutor.scheduleWithFixedDelay(RecordStateStore::closeIdle, IDLE_MILLIS, IDLE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static void closed(RecordStateStore store) {
+        synchronized (OPEN_STORES) {
+            OPEN_STORES.remove(store);
+            if (OPEN_STORES.isEmpty() && closeExecutor != null) {
+                closeExecutor.shutdown();
+                closeExecutor = null;
+            }
+        }
+    }
+
+    private static void closeIdle() {
+        long now = System.currentTimeMillis();
+        for (RecordStateStore store : OPEN_STORES) {
+            synchronized (store) {
+                if (now - store.lastUse > IDLE_MILLIS) {
+                    store.closeChannel();
+                }
+            }
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(stateFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                // ignore incomplete lines, e.g. from an interrupted write
+                if (parts.length == 3 && states.put(Integer.valueOf(parts[0]), new String[] { parts[1], parts[2] }) != null) {
+                    obsoleteLines++;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.error("DataPollerPlugin: Couldn't read the record state file {}, all records will be compared again", stateFile, e);
+            states.clear();
+        }
+    }
+
+    private void compact() throws IOException {
+        // the channel still points to the replaced file
+        closeChannel();
+        Path tempFile = stateFile.resolveSibling(stateFile.getFileName().toString() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Integer, String[]> entry : states.entrySet()) {
+                writeLine(writer, entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            }
+        }
+        Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        obsoleteLines = 0;
+    }
+
+    private static void writeLine(BufferedWriter writer, int processId, String catalogueFingerprint, String metsFingerprint) throws IOException {
+        writer.write(String.valueOf(processId));
+        writer.write('\t');
+        writer.write(catalogueFingerprint);
+        writer.write('\t');
+        writer.write(metsFingerprint);
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,124 @@
+package de.intranda.goobi.plugins.datapoller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.WriteException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Shares catalogue requests for the same key between all tickets of a run, e.g. the record of an anchor that is requested for every volume. The
+ * first caller requests the catalogue, all concurrent and later callers of the same run wait for and reuse its result. The results of the most
+ * recently used keys of the last runs are kept in memory, every caller gets its own copy of the record.
+ */
+class RequestCoalescer {
+    private static final int MAX_RUNS = 4;
+    private static final int MAX_ENTRIES_PER_RUN = 250;
+    // maximum time to wait for the request of another process
+    private static final long FOLLOWER_TIMEOUT_MINUTES = 10;
+
+    // run -> request key -> result of the request
+    private static final Map<String, Map<String, CompletableFuture<Fileformat>>> RUNS =
+            new LinkedHashMap<String, Map<String, CompletableFuture<Fileformat>>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, CompletableFuture<Fileformat>>> eldest) {
+                    return size() > MAX_RUNS;
+                }
+            };
+
+    private RequestCoalescer() {
+    }
+
+    /**
+     * execute a request or wait for the result of the same request in the same run
+     *
+     * @param runKey identifier of the run
+     * @param key identifier of the request
+     * @param prefs preferences to copy the record with
+     * @param catalogueRequest the request
+     * @return a copy of the record or null if the catalogue returned nothing
+     * @throws CatalogueHandlerException
+     */
+    static Fileformat execute(String runKey, String key, Prefs prefs, CatalogueHandler.CatalogueRequest catalogueRequest)
+            throws CatalogueHandlerException {
+        CompletableFuture<Fileformat> future;
+        boolean leader = false;
+        synchronized (RUNS) {
+            Map<String, CompletableFuture<Fileformat>> requests = RUNS.computeIfAbsent(runKey, k -> createRequestMap());
+            future = requests.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                requests.put(key, future);
+                leader = true;
+            }
+        }
+        if (leader) {
+            try {
+                future.complete(catalogueRequest.execute());
+            } catch (Throwable e) {
+                // failed requests are not shared with later callers, they try again. Errors are passed on as well, otherwise the waiting
+                // callers would never finish.
+                remove(runKey, key, future);
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+        Fileformat shared;
+        try {
+            shared = future.get(FOLLOWER_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CatalogueHandlerException) {
+                throw (CatalogueHandlerException) e.getCause();
+            }
+            throw new CatalogueHandlerException("Exception while requesting the catalogue inside of catalogue poller plugin", e.getCause());
+        } catch (TimeoutException e) {
+            throw new CatalogueHandlerException("Timeout while waiting for a catalogue request of another process", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CatalogueHandlerException("Interrupted while waiting for a catalogue request of another process", e);
+        }
+        return copy(shared, prefs);
+    }
+
+    private static Fileformat copy(Fileformat shared, Prefs prefs) throws CatalogueHandlerException {
+        if (shared == null) {
+            return null;
+        }
+        try {
+            Fileformat ff = new MetsMods(prefs);
+            ff.setDigitalDocument(shared.getDigitalDocument().copyDigitalDocument());
+            return ff;
+        } catch (PreferencesException | WriteException e) {
+            throw new CatalogueHandlerException("Couldn't copy the catalogue record inside of catalogue poller plugin", e);
+        }
+    }
+
+    private static void remove(String runKey, String key, CompletableFuture<Fileformat> future) {
+        synchronized (RUNS) {
+            Map<String, CompletableFuture<Fileformat>> requests = RUNS.get(runKey);
+            if (requests != null) {
+                requests.remove(key, future);
+            }
+        }
+    }
+
+    private static Map<String, CompletableFuture<Fileformat>> createRequestMap() {
+        return new LinkedHashMap<String, CompletableFuture<Fileformat>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Fileformat>> eldest) {
+                return size() > MAX_ENTRIES_PER_RUN;
+            }
+        };
+    }
+}
@@ -0,0 +1,221 @@
+package de.intranda.goobi.plugins.datapoller;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Cache for catalogue responses in the temporary folder of Goobi. Each response is stored as METS file, the key consists of the catalogue, the
+ * search field, the normalized search value and the ruleset. Entries expire after the time to live of the requesting rule, the least recently
+ * used entries are removed as soon as the cache exceeds its maximum size.
+ */
+@Log4j2
+public class ResponseCache {
+    private static final String CACHE_FOLDER = "dataPollerCache";
+    private static final long MAX_SIZE = 512L * 1024 * 1024;
+    private static final String TEMP_PREFIX = "tmp-";
+
+    private static ResponseCache instance;
+
+    private final Path folder;
+    // file name -> size of the entry, in access order for the LRU eviction
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private ResponseCache(Path folder) {
+        this.folder = folder;
+        try {
+            Files.createDirectories(folder);
+            // remove the temporary folders of interrupted writes
+            try (Stream<Path> files = Files.list(folder)) {
+                files.filter(f -> Files.isDirectory(f) && f.getFileName().toString().startsWith(TEMP_PREFIX)).forEach(ResponseCache::deleteFolder);
+            }
+            // restore the existing entries, the oldest files are evicted first
+            try (Stream<Path> files = Files.list(folder)) {
+                files.filter(f -> f.getFileName().toString().matches("^[0-9a-f]+\\.xml$"))
+                        .sorted(Comparator.comparingLong(f -> f.toFile().lastModified()))
+                        .forEach(f -> {
+                            long entrySize = getEntrySize(f);
+                            entries.put(f.getFileName().toString(), entrySize);
+                            size += entrySize;
+                        });
+            }
+        } catch (IOException e) {
+            log.error("DataPollerPlugin: Couldn't prepare the response cache folder {}", folder, e);
+        }
+    }
+
+    public static synchronized ResponseCache getInstance() {
+        if (instance == null) {
+            instance = new ResponseCache(Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), CACHE_FOLDER));
+        }
+        return instance;
+    }
+
+    /**
+     * create the key of a cached response
+     *
+     * @param catalogue name of the catalogue
+     * @param field search field
+     * @param value search value, surrounding and repeated whitespace is ignored
+     * @param scope name of the ruleset
+     * @return
+     */
+    public static String getKey(String catalogue, String field, String value, String scope) {
+        String normalizedValue = value == null ? "" : value.trim().replaceAll("\\s+", " ");
+        return catalogue + "|" + field + "|" + normalizedValue + "|" + scope;
+    }
+
+    /**
+     * get a cached response
+     *
+     * @param key
+     * @param ttlHours maximum age of the response in hours
+     * @param prefs preferences to read the response with
+     * @return the response or null if there is no valid entry
+     */
+    public Fileformat get(String key, int ttlHours, Prefs prefs) {
+        String fileName = getFileName(key);
+        synchronized (this) {
+            if (entries.get(fileName) == null) {
+                return null;
+            }
+        }
+        Path file = folder.resolve(fileName);
+        long maxAge = ttlHours * 3600000L;
+        if (file.toFile().lastModified() + maxAge < System.currentTimeMillis()) {
+            remove(fileName);
+            return null;
+        }
+        try {
+            Fileformat ff = new MetsMods(prefs);
+            ff.read(file.toString());
+            return ff;
+        } catch (Exception e) {
+            log.debug("DataPollerPlugin: Couldn't read cached catalogue response {}", file, e);
+            remove(fileName);
+            return null;
+        }
+    }
+
+    /**
+     * store a response in the cache
+     *
+     * @param key
+     * @param ff the response of the catalogue
+     * @param prefs preferences the response was created with
+     */
+    public void put(String key, Fileformat ff, Prefs prefs) {
+        String fileName = getFileName(key);
+        Path file = folder.resolve(fileName);
+        Path tempFolder = null;
+        try {
+            // the response is written under its final name into a temporary folder, the anchor file is named by ugh
+            tempFolder = Files.createTempDirectory(folder, TEMP_PREFIX);
+            Path tempFile = tempFolder.resolve(fileName);
+            MetsMods mm = new MetsMods(prefs);
+            // write a copy, the response itself is still used by the caller
+            mm.setDigitalDocument(ff.getDigitalDocument().copyDigitalDocument());
+            mm.write(tempFile.toString());
+            // responses with an anchor are written into two files
+            Path tempAnchor = getAnchorFile(tempFile);
+            if (Files.exists(tempAnchor)) {
+                Files.move(tempAnchor, getAnchorFile(file), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(getAnchorFile(file));
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            log.debug("DataPollerPlugin: Couldn't cache catalogue response for {}", key, e);
+            return;
+        } finally {
+            deleteFolder(tempFolder);
+        }
+        long entrySize = getEntrySize(file);
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long oldSize = entries.put(fileName, entrySize);
+            size += entrySize - (oldSize == null ? 0 : oldSize);
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (size > MAX_SIZE && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (!eldest.getKey().equals(fileName)) {
+                    size -= eldest.getValue();
+                    evicted.add(eldest.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        for (String name : evicted) {
+            deleteFiles(folder.resolve(name));
+        }
+    }
+
+    private void remove(String fileName) {
+        synchronized (this) {
+            Long entrySize = entries.remove(fileName);
+            if (entrySize == null) {
+                return;
+            }
+            size -= entrySize;
+        }
+        deleteFiles(folder.resolve(fileName));
+    }
+
+    private static void deleteFiles(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(getAnchorFile(file));
+        } catch (IOException e) {
+            log.debug("DataPollerPlugin: Couldn't delete cached catalogue response {}", file, e);
+        }
+    }
+
+    private static void deleteFolder(Path tempFolder) {
+        if (tempFolder == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(tempFolder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        } catch (IOException e) {
+            log.debug("DataPollerPlugin: Couldn't delete temporary cache folder {}", tempFolder, e);
+        }
+    }
+
+    private static long getEntrySize(Path file) {
+        return file.toFile().length() + getAnchorFile(file).toFile().length();
+    }
+
+    private static Path getAnchorFile(Path file) {
+        String name = file.getFileName().toString();
+        return file.resolveSibling(name.replace(".xml", "_anchor.xml"));
+    }
+
+    private static String getFileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8))) + ".xml";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Stores the catalogue records of a test run, so that the test run can be applied later without requesting the catalogue again. For every
+ * process the checksum of its METS file during the test run is stored together with the catalogue record. The record is only stored if
+ * differences were found. Each rule has its own folder in the temporary folder of Goobi, the folder is emptied when the next test run starts.
+ */
+@Log4j2
+public class TestRunPatchStore {
+    private static final String PATCH_FOLDER = "dataPollerPatches";
+    private static final Map<String, TestRunPatchStore> STORES = new ConcurrentHashMap<>();
+
+    private final Path folder;
+
+    private TestRunPatchStore(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * get the store of a rule
+     *
+     * @param ruleName
+     * @return
+     */
+    public static TestRunPatchStore getInstance(String ruleName) {
+        return STORES.computeIfAbsent(ruleName, name -> new TestRunPatchStore(
+                Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), PATCH_FOLDER, name.toLowerCase().trim().replace(" ", "_"))));
+    }
+
+    /**
+     * store the result of a process in a test run
+     *
+     * @param processId
+     * @param metsChecksum checksum of the METS file the record was compared with
+     * @param record the catalogue record or null if there were no differences
+     * @param prefs
+     */
+    public void store(int processId, String metsChecksum, Fileformat record, Prefs prefs) {
+        try {
+            Files.createDirectories(folder);
+            Path recordFile = getRecordFile(processId);
+            deleteRecord(recordFile);
+            if (record != null) {
+                MetsMods mm = new MetsMods(prefs);
+                // write a copy, the record itself is still used by the caller
+                mm.setDigitalDocument(record.getDigitalDocument().copyDigitalDocument());
+                mm.write(recordFile.toString());
+            }
+            // the checksum is written last, a patch without checksum is ignored
+            Path checksumFile = getChecksumFile(processId);
+            Path tempFile = checksumFile.resolveSibling(checksumFile.getFileName() + ".tmp");
+            Files.writeString(tempFile, metsChecksum, StandardCharsets.UTF_8);
+            Files.move(tempFile, checksumFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            log.error("DataPollerPlugin: Couldn't store the test run result of process {}", processId, e);
+        }
+    }
+
+    /**
+     * load the result of a process from the last test run
+     *
+     * @param processId
+     * @param prefs preferences to read the record with
+     * @return the patch or null if there is none
+     */
+    public Patch load(int processId, Prefs prefs) {
+        Path checksumFile = getChecksumFile(processId);
+        if (!Files.exists(checksumFile)) {
+            return null;
+        }
+        try {
+            String metsChecksum = Files.readString(checksumFile, StandardCharsets.UTF_8).trim();
+            Path recordFile = getRecordFile(processId);
+            Fileformat record = null;
+            if (Files.exists(recordFile)) {
+                record = new MetsMods(prefs);
+                record.read(recordFile.toString());
+            }
+            return new Patch(metsChecksum, record);
+        } catch (Exception e) {
+            log.error("DataPollerPlugin: Couldn't read the test run result of process {}", processId, e);
+            return null;
+        }
+    }
+
+    /**
+     * remove the result of a process, e.g. after it was applied
+     *
+     * @param processId
+     */
+    public void remove(int processId) {
+        try {
+            Files.deleteIfExists(getChecksumFile(processId));
+            deleteRecord(getRecordFile(processId));
+        } catch (IOException e) {
+            log.debug("DataPollerPlugin: Couldn't delete the test run result of process {}", processId, e);
+        }
+    }
+
+    /**
+     * remove the results of all processes, before a new test run starts
+     */
+    public void clear() {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            files.forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.debug("DataPollerPlugin: Couldn't delete {}", file, e);
+                }
+            });
+        } catch (IOException e) {
+            log.error("DataPollerPlugin: Couldn't clear the test run results in {}", folder, e);
+        }
+    }
+
+    private Path getChecksumFile(int processId) {
+        return folder.resolve(processId + ".checksum");
+    }
+
+    private Path getRecordFile(int processId) {
+        return folder.resolve(processId + ".xml");
+    }
+
+    private static void deleteRecord(Path recordFile) throws IOException {
+        Files.deleteIfExists(recordFile);
+        // records with an anchor are written into two files
+        Files.deleteIfExists(recordFile.resolveSibling(recordFile.getFileName().toString().replace(".xml", "_anchor.xml")));
+    }
+
+    /**
+     * result of a process in a test run
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Patch {
+        // checksum of the METS file during the test run
+        private String metsChecksum;
+        // catalogue record or null if there were no differences
+        private Fileformat record;
+    }
+}
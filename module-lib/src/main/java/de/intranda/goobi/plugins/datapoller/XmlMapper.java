@@ -0,0 +1,140 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+
+/**
+ * Converts objects of a class from and to XML. The JAXBContext is created once on first use and shared by all threads. Marshallers and
+ * unmarshallers are not thread safe, so every call borrows one from a small pool and returns it afterwards.
+ *
+ * The pool is used instead of thread locals, because the threads of the message queue and the web container outlive the plugin class loader.
+ *
+ * @param <T> class of the root element
+ */
+public final class XmlMapper<T> {
+    // instances that are kept for later calls, further instances are created on demand and discarded after use
+    private static final int MAX_POOL_SIZE = 16;
+
+    private final Class<T> type;
+    private final boolean formattedOutput;
+    private volatile JAXBContext context;
+
+    private final Queue<Marshaller> marshallers = new ConcurrentLinkedQueue<>();
+    private final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledMarshallers = new AtomicInteger();
+    private final AtomicInteger pooledUnmarshallers = new AtomicInteger();
+
+    /**
+     * @param type class of the root element
+     * @param formattedOutput true to write indented XML
+     */
+    public XmlMapper(Class<T> type, boolean formattedOutput) {
+        this.type = type;
+        this.formattedOutput = formattedOutput;
+    }
+
+    public void marshal(T object, OutputStream out) throws JAXBException {
+        Marshaller marshaller = borrowMarshaller();
+        try {
+            marshaller.marshal(object, out);
+        } finally {
+            release(marshallers, pooledMarshallers, marshaller);
+        }
+    }
+
+    public void marshal(T object, File file) throws JAXBException {
+        Marshaller marshaller = borrowMarshaller();
+        try {
+            marshaller.marshal(object, file);
+        } finally {
+            release(marshallers, pooledMarshallers, marshaller);
+        }
+    }
+
+    public T unmarshal(InputStream in) throws JAXBException {
+        Unmarshaller unmarshaller = borrowUnmarshaller();
+        try {
+            return type.cast(unmarshaller.unmarshal(in));
+        } finally {
+            release(unmarshallers, pooledUnmarshallers, unmarshaller);
+        }
+    }
+
+    public T unmarshal(File file) throws JAXBException {
+        Unmarshaller unmarshaller = borrowUnmarshaller();
+        try {
+            return type.cast(unmarshaller.unmarshal(file));
+        } finally {
+            release(unmarshallers, pooledUnmarshallers, unmarshaller);
+        }
+    }
+
+    private JAXBContext getContext() throws JAXBException {
+        JAXBContext result = context;
+        if (result == null) {
+            synchronized (this) {
+                result = context;
+                if (result == null) {
+                    result = JAXBContext.newInstance(type);
+                    context = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Marshaller borrowMarshaller() throws JAXBException {
+        Marshaller marshaller = marshallers.poll();
+        if (marshaller != null) {
+            pooledMarshallers.decrementAndGet();
+            return marshaller;
+        }
+        marshaller = getContext().createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formattedOutput);
+        return marshaller;
+    }
+
+    private Unmarshaller borrowUnmarshaller() throws JAXBException {
+        Unmarshaller unmarshaller = unmarshallers.poll();
+        if (unmarshaller != null) {
+            pooledUnmarshallers.decrementAndGet();
+            return unmarshaller;
+        }
+        return getContext().createUnmarshaller();
+    }
+
+    private static <M> void release(Queue<M> pool, AtomicInteger size, M instance) {
+        if (size.incrementAndGet() <= MAX_POOL_SIZE) {
+            pool.offer(instance);
+        } else {
+            size.decrementAndGet();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,6 +31,7 @@ import java.util.List;
 import org.goobi.io.BackupFileManager;
 
 import de.intranda.goobi.plugins.datapoller.ConfigInfo;
+import de.intranda.goobi.plugins.datapoller.RecordStateStore;
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.StorageProviderInterface;
 import lombok.extern.log4j.Log4j2;
@@ -43,7 +45,8 @@ public class FileManager {
     private static StorageProviderInterface SPI = StorageProvider.getInstance();
 
     /**
-     * returns a HashMap with the latest xlsx-reports and deletes old reports
+     * returns a HashMap with the latest xlsx-reports and deletes old reports. The report of the latest run of a rule is only written again if new
+     * results arrived since it was written, see ReportIndex.
      * 
      * @param tempFolder the folder where the xlsxFiles are located
      * @param configInfos List with ConfigInfo
@@ -51,20 +54,25 @@ public class FileManager {
      */
     public static HashMap<String, FolderInfo> manageTempFiles(Path tempFolder, Collection<ConfigInfo> configInfos) {
         HashMap<String, FolderInfo> reports = new HashMap<>();
+        // the temp folder is listed once for all rules
+        List<Path> runFolders = SPI.listFiles(tempFolder.toString(), path -> {
+            return Files.isDirectory(path) && path.getFileName().toString().startsWith("catPoll_");
+        });
         for (ConfigInfo configInfo : configInfos) {
             String ruleName = configInfo.getTitle();
-            List<Path> xmlFolders = getXmlFolders(tempFolder, ruleName);
-            Collections.sort(xmlFolders);
-            if (xmlFolders != null && !xmlFolders.isEmpty()) {
-                // create xlsx report
-                XlsWriter writer = new XlsWriter(tempFolder);
-                // put the last element (youngest file) into the HashMap
-                FolderInfo info = writer.writeWorkbook(xmlFolders.remove(xmlFolders.size() - 1));
+            List<Path> xmlFolders = getXmlFolders(runFolders, ruleName);
+            if (!xmlFolders.isEmpty()) {
+                Collections.sort(xmlFolders);
+                // the youngest folder is kept, it is the source of the report of the latest run
+                Path latestFolder = xmlFolders.remove(xmlFolders.size() - 1);
+                FolderInfo info = getReport(tempFolder, ruleName, latestFolder);
                 if (info != null) {
                     reports.put(ruleName, info);
                 }
                 // delete the rest
                 for (Path xmlFolder : xmlFolders) {
+                    RunResultLog.close(xmlFolder);
+                    RunAggregator.remove(xmlFolder);
                     if (!SPI.deleteDir(xmlFolder)) {
                         log.debug("DataPollerPlugin: Couldn't delete the folder: " + xmlFolder);
                     }
@@ -77,19 +85,76 @@ public class FileManager {
                     // put the last element (youngest file) into the HashMap
                     reports.put(ruleName, new FolderInfo(xlsFiles.remove(xlsFiles.size() - 1)));
                     // delete the rest
-                    for (Path xlsFile : xlsFiles) {
-                        try {
-                            SPI.deleteFile(xlsFile);
-                        } catch (IOException e) {
-                            log.error("DataPollerPlugin: Couldn't delete the file: " + xlsFile, e);
-                        }
-                    }
+                    deleteFiles(xlsFiles);
                 }
             }
         }
         return reports;
     }
 
+    /**
+     * get the report of a run. The results that arrived since the last call are added to the aggregator of the run. The xlsx file is written
+     * once the run is finished, and again only if the run folder changes afterwards.
+     */
+    private static FolderInfo getReport(Path tempFolder, String ruleName, Path runFolder) {
+        synchronized (ReportIndex.lock(ruleName)) {
+            RunAggregator aggregator = RunAggregator.getInstance(runFolder);
+            if (!aggregator.update()) {
+                // the report info is written at the start of the run
+                return null;
+            }
+            Path xlsFile = null;
+            if (aggregator.isComplete()) {
+                String state = ReportIndex.getState(runFolder);
+                xlsFile = ReportIndex.get(ruleName, runFolder, state);
+                if (xlsFile == null) {
+                    xlsFile = new XlsWriter(tempFolder).writeWorkbook(runFolder, aggregator);
+                    if (xlsFile != null) {
+                        ReportIndex.put(ruleName, runFolder, state, xlsFile);
+                        // the run is finished, its files are not written anymore
+                        RunResultLog.close(runFolder);
+                        RecordStateStore.close(ruleName);
+                        // delete the reports of older runs
+                        Path reportName = xlsFile.getFileName();
+                        List<Path> xlsFiles = getXlsFiles(tempFolder, ruleName);
+                        xlsFiles.removeIf(path -> path.getFileName().equals(reportName));
+                        deleteFiles(xlsFiles);
+                    }
+                }
+            }
+            RunSummary summary = aggregator.getSummary();
+            return new FolderInfo(xlsFile, runFolder, summary.getProcessed(), aggregator.getOutages(), aggregator.getInfo(), summary);
+        }
+    }
+
+    /**
+     * get the xlsx file of a report. For a run that is not finished yet an interim report is written.
+     *
+     * @param report
+     * @return the xlsx file or null if it couldn't be written
+     */
+    public static Path getXlsxFile(FolderInfo report) {
+        if (report.getXlsFile() != null || report.getRunFolder() == null) {
+            return report.getXlsFile();
+        }
+        String ruleName = report.getInfo() != null ? report.getInfo().getRuleName() : report.getRunFolder().toString();
+        synchronized (ReportIndex.lock(ruleName)) {
+            RunAggregator aggregator = RunAggregator.getInstance(report.getRunFolder());
+            aggregator.update();
+            return new XlsWriter(report.getRunFolder().getParent()).writeWorkbook(report.getRunFolder(), aggregator);
+        }
+    }
+
+    private static void deleteFiles(List<Path> files) {
+        for (Path file : files) {
+            try {
+                SPI.deleteFile(file);
+            } catch (IOException e) {
+                log.error("DataPollerPlugin: Couldn't delete the file: " + file, e);
+            }
+        }
+    }
+
     public static Path getReportInfoFile(Path xmlFolder) {
         List<Path> reportInfo = SPI.listFiles(xmlFolder.toString(), path -> {
             return !Files.isDirectory(path) && path.getFileName().toString().matches("^reportInfo.xml$");
@@ -111,11 +176,15 @@ public class FileManager {
         return xmlFolder;
     }
 
-    private static List<Path> getXmlFolders(Path tempFolder, String ruleName) {
-        return SPI.listFiles(tempFolder.toString(), path -> {
-            return Files.isDirectory(path)
-                    && path.getFileName().toString().matches("^catPoll_" + ruleName.toLowerCase().trim().replace(" ", "_") + "[_\\d]*$");
-        });
+    private static List<Path> getXmlFolders(List<Path> runFolders, String ruleName) {
+        String pattern = "^catPoll_" + ruleName.toLowerCase().trim().replace(" ", "_") + "[_\\d]*$";
+        List<Path> xmlFolders = new ArrayList<>();
+        for (Path path : runFolders) {
+            if (path.getFileName().toString().matches(pattern)) {
+                xmlFolders.add(path);
+            }
+        }
+        return xmlFolders;
     }
 
     public static List<Path> getXmlFiles(Path xmlFolder) {
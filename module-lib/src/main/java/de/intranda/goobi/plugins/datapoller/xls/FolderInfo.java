@@ -1,6 +1,5 @@
 package de.intranda.goobi.plugins.datapoller.xls;
 
-import de.intranda.goobi.plugins.datapoller.PullDiff;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
@@ -8,29 +7,40 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Report of the latest run of a rule. Only the counters of the run are kept in memory, pages of the results are read with
+ * {@link #query(ResultQuery)} and the complete results are in the xlsx file.
+ */
 @Data
 @AllArgsConstructor
 public class FolderInfo {
+    // null while the run is not finished, the interim report is written on demand
     Path xlsFile;
-    List<PullDiff> differences;
+    // folder with the results of the run, null if only the xlsx file is left
+    Path runFolder;
+    // number of all results of the run
+    int diffSize;
+    List<OutageWindow> outages;
     ReportInfo info;
+    RunSummary summary;
 
     public FolderInfo(Path xlsFile) {
         this.xlsFile = xlsFile;
-        this.differences = new ArrayList<>();
+        this.outages = new ArrayList<>();
         this.info = null;
+        this.summary = RunSummary.empty();
     }
 
-    public int getDiffSize() {
-        return this.differences.size();
-    }
-
-    public List<PullDiff> getDifferences(int startIndex) {
-        if (startIndex >= differences.size()) {
-            return new ArrayList<>();
+    /**
+     * get a page of the results of the run
+     *
+     * @param query
+     * @return
+     */
+    public ResultPage query(ResultQuery query) {
+        if (runFolder == null) {
+            return ResultPage.empty();
         }
-        int offset = 500;
-        int endIndex = (startIndex + offset < differences.size()) ? startIndex + offset : differences.size();
-        return differences.subList(startIndex, endIndex);
+        return RunAggregator.getInstance(runFolder).query(query);
     }
 }
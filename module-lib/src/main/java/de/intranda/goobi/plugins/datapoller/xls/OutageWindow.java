@@ -0,0 +1,73 @@
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.intranda.goobi.plugins.datapoller.PullDiff;
+import lombok.Data;
+
+/**
+ * Period in which the catalogue was unavailable during a run, together with the processes that were skipped because of it
+ */
+@Data
+public class OutageWindow {
+    private long start;
+    private long end;
+    private List<Integer> processIds = new ArrayList<>();
+
+    public OutageWindow(long start) {
+        this.start = start;
+        this.end = start;
+    }
+
+    public int getProcessCount() {
+        return processIds.size();
+    }
+
+    public Date getStartDate() {
+        return new Date(start);
+    }
+
+    public Date getEndDate() {
+        return new Date(end);
+    }
+
+    /**
+     * collect the outage windows of a run from the results of the processes
+     *
+     * @param differences results of the processes
+     * @return outage windows ordered by their start
+     */
+    public static List<OutageWindow> collect(List<PullDiff> differences) {
+        Collector collector = new Collector();
+        differences.forEach(collector::add);
+        return collector.getWindows();
+    }
+
+    /**
+     * collects the outage windows of a run while its results are read one after the other
+     */
+    public static class Collector {
+        private final Map<Long, OutageWindow> windows = new LinkedHashMap<>();
+
+        public void add(PullDiff diff) {
+            if (diff != null && diff.isSkippedByOutage()) {
+                OutageWindow window = windows.computeIfAbsent(diff.getOutageStart(), OutageWindow::new);
+                window.setEnd(Math.max(window.getEnd(), diff.getOutageEnd()));
+                window.getProcessIds().add(diff.getProcessId());
+            }
+        }
+
+        /**
+         * @return outage windows ordered by their start
+         */
+        public List<OutageWindow> getWindows() {
+            List<OutageWindow> result = new ArrayList<>(windows.values());
+            result.sort((a, b) -> Long.compare(a.getStart(), b.getStart()));
+            return result;
+        }
+    }
+}
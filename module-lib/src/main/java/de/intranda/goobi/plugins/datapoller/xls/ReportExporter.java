@@ -0,0 +1,181 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Writes the rows of a report in a machine readable format. The rows are written while the results of the run are read, so that only a single
+ * result is kept in memory and the output starts immediately.
+ */
+public class ReportExporter {
+
+    public enum Format {
+        CSV("csv"),
+        NDJSON("ndjson");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    // same columns as the xlsx report
+    private static final String[] COLUMNS = { "id", "title", "field", "old value", "new value" };
+    private static final String[] JSON_KEYS = { "id", "title", "field", "oldValue", "newValue" };
+
+    private ReportExporter() {
+    }
+
+    /**
+     * write the rows of all results of a run, ordered by process id
+     *
+     * @param runFolder folder of the run
+     * @param format output format
+     * @param out the stream is flushed, but not closed
+     * @throws IOException
+     */
+    public static void export(Path runFolder, Format format, OutputStream out) throws IOException {
+        RunAggregator aggregator = RunAggregator.getInstance(runFolder);
+        aggregator.update();
+        export(aggregator::forEachByProcessId, format, out);
+    }
+
+    /**
+     * write the rows of the results of a source
+     *
+     * @param source results of the processes
+     * @param format output format
+     * @param out the stream is flushed, but not closed
+     * @throws IOException
+     */
+    public static void export(XlsWriter.DiffSource source, Format format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+        if (format == Format.CSV) {
+            writeCsvRow(writer, COLUMNS);
+        }
+        try {
+            source.forEach(difference -> {
+                try {
+                    for (XlsData data : difference.getXlsData()) {
+                        String[] row = { String.valueOf(difference.getProcessId()), difference.getProcessTitle(), data.getField(),
+                                data.getOldValues(), data.getNewValues() };
+                        if (format == Format.CSV) {
+                            writeCsvRow(writer, row);
+                        } else {
+                            writeJsonRow(writer, row);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // e.g. the download was cancelled
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    /**
+     * write a row as RFC 4180 CSV
+     */
+    private static void writeCsvRow(Writer writer, String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = row[i] == null ? "" : row[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * write a row as a JSON object on a single line
+     */
+    private static void writeJsonRow(Writer writer, String[] row) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeJsonString(writer, JSON_KEYS[i]);
+            writer.write(':');
+            if (row[i] == null) {
+                writer.write("null");
+            } else if (i == 0) {
+                // the process id is a number
+                writer.write(row[i]);
+            } else {
+                writeJsonString(writer, row[i]);
+            }
+        }
+        writer.write("}\n");
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Remembers the xlsx report of the latest finished run of every rule together with the state of the run folder it was created from. As long as
+ * the folder doesn't change, the report is reused instead of being written again on every page render.
+ */
+class ReportIndex {
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private ReportIndex() {
+    }
+
+    /**
+     * get the lock that serializes the creation of the reports of a rule
+     *
+     * @param ruleName
+     * @return
+     */
+    static Object lock(String ruleName) {
+        return LOCKS.computeIfAbsent(ruleName, name -> new Object());
+    }
+
+    /**
+     * get the cached report of a run
+     *
+     * @param ruleName name of the rule
+     * @param runFolder folder of the latest run of the rule
+     * @param state current state of the folder, see {@link #getState(Path)}
+     * @return the xlsx file or null if the run changed since the report was written
+     */
+    static Path get(String ruleName, Path runFolder, String state) {
+        Entry entry = ENTRIES.get(ruleName);
+        if (entry == null || !entry.runFolder.equals(runFolder) || !entry.state.equals(state)) {
+            return null;
+        }
+        if (!Files.exists(entry.xlsFile)) {
+            return null;
+        }
+        return entry.xlsFile;
+    }
+
+    static void put(String ruleName, Path runFolder, String state, Path xlsFile) {
+        ENTRIES.put(ruleName, new Entry(runFolder, state, xlsFile));
+    }
+
+    static void remove(String ruleName) {
+        ENTRIES.remove(ruleName);
+    }
+
+    /**
+     * get the state of a run folder. It changes when the folder gets new files, a result is appended to the log or the report info is updated.
+     *
+     * @param runFolder
+     * @return
+     */
+    static String getState(Path runFolder) {
+        StringBuilder state = new StringBuilder();
+        for (Path path : new Path[] { runFolder, runFolder.resolve(RunResultLog.FILE_NAME), runFolder.resolve("reportInfo.xml") }) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                state.append(attributes.lastModifiedTime().toMillis()).append(':').append(attributes.size());
+            } catch (IOException e) {
+                // the file doesn't exist yet
+                state.append('-');
+            }
+            state.append(';');
+        }
+        return state.toString();
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+        private final Path runFolder;
+        private final String state;
+        private final Path xlsFile;
+    }
+}
@@ -6,41 +6,54 @@ import java.nio.file.Path;
 
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.StorageProviderInterface;
-import jakarta.xml.bind.JAXBContext;
+import de.intranda.goobi.plugins.datapoller.XmlMapper;
 import jakarta.xml.bind.JAXBException;
-import jakarta.xml.bind.Marshaller;
-import jakarta.xml.bind.Unmarshaller;
 import jakarta.xml.bind.annotation.XmlRootElement;
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 
 @Data
 @Log4j2
-@AllArgsConstructor
 @NoArgsConstructor
 @XmlRootElement(name = "reportInfo")
 public class ReportInfo {
+    private static final XmlMapper<ReportInfo> XML_MAPPER = new XmlMapper<>(ReportInfo.class, true);
+
     private boolean testRun;
     private String ruleName;
     private long lastRunMillis;
     private int ticketCount;
+    // true while the processes of the run are still enumerated and the ticketCount is not final yet
+    private boolean enumerating;
+
+    public ReportInfo(boolean testRun, String ruleName, long lastRunMillis, int ticketCount) {
+        this.testRun = testRun;
+        this.ruleName = ruleName;
+        this.lastRunMillis = lastRunMillis;
+        this.ticketCount = ticketCount;
+    }
+
+    /**
+     * check if all results of the run are available
+     * 
+     * @param numberOfResults number of results that were written so far
+     * @return true if the enumeration is finished and a result exists for every process
+     */
+    public boolean isComplete(int numberOfResults) {
+        return !enumerating && numberOfResults >= ticketCount;
+    }
 
     public static void marshalReportInfo(ReportInfo info, Path xmlTempFolder) {
         StorageProviderInterface spi = StorageProvider.getInstance();
         Path fileOutputPath = xmlTempFolder.resolve("reportInfo.xml");
         try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(ReportInfo.class);
-            Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-            jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-
             //Check if Folder exists and if not try to create it
             if (!spi.isFileExists(xmlTempFolder)) {
                 spi.createDirectories(xmlTempFolder);
             }
 
-            jaxbMarshaller.marshal(info, new File(fileOutputPath.toString()));
+            XML_MAPPER.marshal(info, new File(fileOutputPath.toString()));
         } catch (JAXBException ex) {
             log.error("DataPollerPlugin: Couldn't marshal ReportInfo Object to xml!", ex);
         } catch (IOException ex) {
@@ -51,9 +64,7 @@ public class ReportInfo {
     public static ReportInfo unmarshalReportInfo(Path ReportInfoXml) {
         ReportInfo info;
         try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(ReportInfo.class);
-            Unmarshaller jaxbUnMarshaller = jaxbContext.createUnmarshaller();
-            info = (ReportInfo) jaxbUnMarshaller.unmarshal(ReportInfoXml.toFile());
+            info = XML_MAPPER.unmarshal(ReportInfoXml.toFile());
         } catch (JAXBException ex) {
             log.error("DataPollerPlugin: Couldn't unmarshal ReportInfo Object from xml: " + ReportInfoXml.toString(), ex);
             return null;
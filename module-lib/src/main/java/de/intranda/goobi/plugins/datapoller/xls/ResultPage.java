@@ -0,0 +1,66 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.intranda.goobi.plugins.datapoller.PullDiff;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Page of the results of a run that match a ResultQuery
+ */
+@Getter
+@AllArgsConstructor
+public class ResultPage {
+    private List<PullDiff> results;
+    // position of the first result of the page among all matching results
+    private int offset;
+    private int limit;
+    // number of all matching results
+    private int total;
+
+    public static ResultPage empty() {
+        return new ResultPage(new ArrayList<>(), 0, ResultQuery.DEFAULT_LIMIT, 0);
+    }
+
+    public boolean isPreviousAvailable() {
+        return offset > 0;
+    }
+
+    public boolean isNextAvailable() {
+        return offset + limit < total;
+    }
+
+    /**
+     * @return number of the first result of the page, starting with 1
+     */
+    public int getFirst() {
+        return results.isEmpty() ? 0 : offset + 1;
+    }
+
+    /**
+     * @return number of the last result of the page
+     */
+    public int getLast() {
+        return offset + results.size();
+    }
+}
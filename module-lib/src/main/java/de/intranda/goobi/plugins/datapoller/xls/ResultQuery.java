@@ -0,0 +1,48 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Query for a page of the results of a run
+ */
+@Data
+@NoArgsConstructor
+public class ResultQuery {
+    public static final int DEFAULT_LIMIT = 100;
+
+    // number of matching results that are skipped
+    private int offset = 0;
+    private int limit = DEFAULT_LIMIT;
+    // only results with differences between the METS file and the catalogue
+    private boolean changedOnly;
+    private boolean failedOnly;
+    // only results with a difference in this field, empty for all fields
+    private String field;
+
+    public ResultQuery(ResultQuery other) {
+        this.offset = other.offset;
+        this.limit = other.limit;
+        this.changedOnly = other.changedOnly;
+        this.failedOnly = other.failedOnly;
+        this.field = other.field;
+    }
+}
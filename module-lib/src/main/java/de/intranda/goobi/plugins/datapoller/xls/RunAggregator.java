@@ -0,0 +1,380 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang.StringUtils;
+
+import de.intranda.goobi.plugins.datapoller.PullDiff;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Aggregates the results of a run while its tickets finish. Every call of {@link #update()} reads only the results that were appended to the
+ * result log since the last call and adds them to the running counters, the outage windows and an index of the results. Progress and interim
+ * results of a run therefore cost time in proportion to the new results instead of all results.
+ *
+ * The index keeps the position of every result in the log together with a few flags and the changed fields, so that a page of filtered
+ * results can be found without reading the other results, see {@link #query(ResultQuery)}.
+ */
+@Log4j2
+public class RunAggregator {
+    private static final String REPORT_INFO_FILE = "reportInfo.xml";
+    private static final byte FLAG_CHANGED = 1;
+    private static final byte FLAG_FAILED = 2;
+    private static final int[] NO_FIELDS = new int[0];
+    // results that are read concurrently before they are passed on in the order of their process ids
+    private static final int READ_CHUNK_SIZE = 512;
+    private static final int READER_THREADS = 8;
+
+    // reading the results is dominated by the latency of the storage, so the threads mostly wait for it
+    private static final ExecutorService READERS = Executors.newFixedThreadPool(READER_THREADS, r -> {
+        Thread thread = new Thread(r, "DataPoller result reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // run folder -> aggregator, the aggregators of deleted run folders are removed by FileManager
+    private static final Map<Path, RunAggregator> AGGREGATORS = new ConcurrentHashMap<>();
+
+    private final Path runFolder;
+
+    private ReportInfo info;
+    private long infoModified = -1;
+
+    // position in the result log up to which the results are aggregated
+    private long logOffset = 0;
+    // result files of older versions of the plugin that are already aggregated
+    private final Set<String> legacyFiles = new HashSet<>();
+
+    private int processed = 0;
+    private int changed = 0;
+    private int failed = 0;
+    private int skippedByOutage = 0;
+    private final Map<String, Integer> fieldChanges = new TreeMap<>();
+    private final OutageWindow.Collector outages = new OutageWindow.Collector();
+
+    // index of the results in the order of their arrival: position in the log, or -(i + 1) for the i-th result file of an older version
+    private long[] positions = new long[1024];
+    private int[] processIds = new int[1024];
+    private byte[] flags = new byte[1024];
+    private int[][] changedFields = new int[1024][];
+    private final List<Path> legacyPaths = new ArrayList<>();
+    private final Map<String, Integer> fieldIds = new HashMap<>();
+
+    private RunAggregator(Path runFolder) {
+        this.runFolder = runFolder;
+    }
+
+    /**
+     * get the aggregator of a run
+     *
+     * @param runFolder folder of the run
+     * @return
+     */
+    public static RunAggregator getInstance(Path runFolder) {
+        return AGGREGATORS.computeIfAbsent(runFolder.toAbsolutePath(), RunAggregator::new);
+    }
+
+    /**
+     * forget the aggregator of a run, e.g. after its folder was deleted
+     *
+     * @param runFolder
+     */
+    public static void remove(Path runFolder) {
+        AGGREGATORS.remove(runFolder.toAbsolutePath());
+    }
+
+    /**
+     * add the results that arrived since the last call
+     *
+     * @return false if the run has no report info
+     */
+    public synchronized boolean update() {
+        Path infoFile = runFolder.resolve(REPORT_INFO_FILE);
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(infoFile).toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+        if (modified != infoModified) {
+            // the ticket count changes when the enumeration of the processes is finished
+            ReportInfo newInfo = ReportInfo.unmarshalReportInfo(infoFile);
+            if (newInfo == null) {
+                return false;
+            }
+            info = newInfo;
+            infoModified = modified;
+        }
+        logOffset = RunResultLog.readRecords(runFolder, logOffset, this::add);
+        for (Path xmlFile : getLegacyFiles()) {
+            if (legacyFiles.add(xmlFile.getFileName().toString())) {
+                PullDiff diff = PullDiff.unmarshalPullDiff(xmlFile);
+                if (diff != null) {
+                    legacyPaths.add(xmlFile);
+                    add(-legacyPaths.size(), diff);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * list the result files of older versions of the plugin, ordered by name
+     */
+    private List<Path> getLegacyFiles() {
+        try (Stream<Path> files = Files.list(runFolder)) {
+            return files.filter(f -> f.getFileName().toString().matches("^[-_\\d]*\\.xml$") && !Files.isDirectory(f)).sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            log.error("DataPollerPlugin: Couldn't list the result files of {}", runFolder, e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void add(long position, PullDiff diff) {
+        byte flag = 0;
+        int[] fields = NO_FIELDS;
+        if (diff.isFailed()) {
+            failed++;
+            flag |= FLAG_FAILED;
+        }
+        if (diff.isSkippedByOutage()) {
+            skippedByOutage++;
+        }
+        if (diff.hasDifferences()) {
+            changed++;
+            flag |= FLAG_CHANGED;
+            Set<Integer> ids = new LinkedHashSet<>();
+            for (XlsData data : diff.getXlsData()) {
+                String field = String.valueOf(data.getField());
+                fieldChanges.merge(field, 1, Integer::sum);
+                ids.add(fieldIds.computeIfAbsent(field, f -> fieldIds.size()));
+            }
+            fields = ids.stream().mapToInt(Integer::intValue).toArray();
+        }
+        outages.add(diff);
+
+        if (processed == positions.length) {
+            int capacity = processed * 2;
+            positions = Arrays.copyOf(positions, capacity);
+            processIds = Arrays.copyOf(processIds, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            changedFields = Arrays.copyOf(changedFields, capacity);
+        }
+        positions[processed] = position;
+        processIds[processed] = diff.getProcessId();
+        flags[processed] = flag;
+        changedFields[processed] = fields;
+        processed++;
+    }
+
+    /**
+     * get a page of the results that match a query. Only the results of the page are read from the log.
+     *
+     * @param query
+     * @return
+     */
+    public ResultPage query(ResultQuery query) {
+        int offset = Math.max(0, query.getOffset());
+        int limit = query.getLimit() > 0 ? query.getLimit() : ResultQuery.DEFAULT_LIMIT;
+        long[] page = new long[limit];
+        int pageSize = 0;
+        int total = 0;
+        List<Path> legacy;
+        synchronized (this) {
+            int fieldId = -1;
+            if (StringUtils.isNotBlank(query.getField())) {
+                Integer id = fieldIds.get(query.getField());
+                if (id == null) {
+                    return new ResultPage(new ArrayList<>(), offset, limit, 0);
+                }
+                fieldId = id;
+            }
+            for (int i = 0; i < processed; i++) {
+                if (matches(i, query, fieldId)) {
+                    if (total >= offset && pageSize < limit) {
+                        page[pageSize++] = positions[i];
+                    }
+                    total++;
+                }
+            }
+            legacy = new ArrayList<>(legacyPaths);
+        }
+        List<PullDiff> results;
+        try {
+            results = read(Arrays.copyOf(page, pageSize), legacy);
+        } catch (IOException e) {
+            log.error("DataPollerPlugin: Couldn't read the results of {}", runFolder, e);
+            results = new ArrayList<>();
+        }
+        return new ResultPage(results, offset, limit, total);
+    }
+
+    private boolean matches(int index, ResultQuery query, int fieldId) {
+        if (query.isChangedOnly() && (flags[index] & FLAG_CHANGED) == 0) {
+            return false;
+        }
+        if (query.isFailedOnly() && (flags[index] & FLAG_FAILED) == 0) {
+            return false;
+        }
+        if (fieldId >= 0) {
+            for (int id : changedFields[index]) {
+                if (id == fieldId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * pass all aggregated results of the run to a consumer, ordered by their process ids. The results are read and parsed concurrently in chunks,
+     * so that only a chunk of results is kept in memory.
+     *
+     * @param consumer receives the results in the order of the process ids, results of the same process in the order of their arrival
+     * @throws UncheckedIOException if a result couldn't be read, the consumer then received only a part of the results
+     */
+    public void forEachByProcessId(Consumer<? super PullDiff> consumer) {
+        long[] sorted;
+        List<Path> legacy;
+        synchronized (this) {
+            // process id in the upper and arrival in the lower half, so that sorting the keys sorts the results
+            long[] keys = new long[processed];
+            for (int i = 0; i < processed; i++) {
+                keys[i] = ((long) processIds[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            sorted = new long[processed];
+            for (int i = 0; i < processed; i++) {
+                sorted[i] = positions[(int) keys[i]];
+            }
+            legacy = new ArrayList<>(legacyPaths);
+        }
+        for (int start = 0; start < sorted.length; start += READ_CHUNK_SIZE) {
+            long[] chunk = Arrays.copyOfRange(sorted, start, Math.min(sorted.length, start + READ_CHUNK_SIZE));
+            readConcurrently(chunk, legacy).forEach(consumer);
+        }
+    }
+
+    /**
+     * read a chunk of results in slices on the reader threads
+     *
+     * @return the results in the order of the chunk
+     */
+    private List<PullDiff> readConcurrently(long[] chunk, List<Path> legacy) {
+        int slices = Math.min(READER_THREADS, chunk.length);
+        List<Future<List<PullDiff>>> futures = new ArrayList<>(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            long[] part = Arrays.copyOfRange(chunk, chunk.length * slice / slices, chunk.length * (slice + 1) / slices);
+            futures.add(READERS.submit(() -> read(part, legacy)));
+        }
+        List<PullDiff> results = new ArrayList<>(chunk.length);
+        try {
+            for (Future<List<PullDiff>> future : futures) {
+                results.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            // a report without some of the results would look complete, so it is not written at all
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            throw new UncheckedIOException(new IOException("Couldn't read the results of " + runFolder, cause));
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while reading the results of " + runFolder));
+        }
+        return results;
+    }
+
+    /**
+     * read the results at the given index positions, consecutive results of the log are read together
+     *
+     * @throws IOException if a result couldn't be read
+     */
+    private List<PullDiff> read(long[] page, List<Path> legacy) throws IOException {
+        List<PullDiff> results = new ArrayList<>(page.length);
+        int start = 0;
+        for (int i = 0; i <= page.length; i++) {
+            if (i == page.length || page[i] < 0) {
+                if (i > start) {
+                    RunResultLog.readAt(runFolder, Arrays.copyOfRange(page, start, i), results::add);
+                }
+                if (i < page.length) {
+                    Path legacyFile = legacy.get((int) -page[i] - 1);
+                    PullDiff diff = PullDiff.unmarshalPullDiff(legacyFile);
+                    if (diff == null) {
+                        throw new IOException("Couldn't read the result file " + legacyFile);
+                    }
+                    results.add(diff);
+                }
+                start = i + 1;
+            }
+        }
+        return results;
+    }
+
+    public synchronized ReportInfo getInfo() {
+        return info;
+    }
+
+    /**
+     * check if all results of the run arrived
+     *
+     * @return
+     */
+    public synchronized boolean isComplete() {
+        return info != null && info.isComplete(processed);
+    }
+
+    public synchronized RunSummary getSummary() {
+        return new RunSummary(processed, changed, failed, skippedByOutage, Collections.unmodifiableMap(new TreeMap<>(fieldChanges)));
+    }
+
+    public synchronized List<OutageWindow> getOutages() {
+        return outages.getWindows();
+    }
+}
@@ -0,0 +1,369 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import de.intranda.goobi.plugins.datapoller.PullDiff;
+import jakarta.xml.bind.JAXBException;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Append only log with the results of all processes of a run. The ticket workers append their results concurrently to a single file in the
+ * folder of the run, so that a run needs a constant number of files regardless of its size. Every record consists of its length as four byte
+ * integer followed by the PullDiff as XML.
+ *
+ * The records are written immediately, but forced to the storage only in batches: after a number of records or at the latest after one
+ * second. A record that was cut off by a crash is ignored when the log is read, and removed before the next record is appended to the log. A
+ * complete record that can't be unmarshalled is read as failed result. Logs that are not used for a minute are closed, the thread that forces
+ * them to the storage only runs while a log is open.
+ */
+@Log4j2
+public class RunResultLog {
+    public static final String FILE_NAME = "results.log";
+
+    // number of records that are written before the log is forced to the storage
+    private static final int SYNC_BATCH_SIZE = 100;
+    private static final long SYNC_INTERVAL_MILLIS = 1000;
+    // logs that are not used for this time are closed
+    private static final long IDLE_MILLIS = 60000;
+    // larger records can only be the result of a corrupted log
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private static final Map<Path, RunResultLog> LOGS = new ConcurrentHashMap<>();
+    // started with the first open log and stopped as soon as all logs are closed, so that no thread keeps the plugin loaded
+    private static ScheduledExecutorService syncExecutor;
+
+    private final Path file;
+    private FileChannel channel;
+    // a closed log is not written anymore, the next record opens a new instance
+    private boolean closed = false;
+    private int unsyncedRecords = 0;
+    private long lastUse = System.currentTimeMillis();
+
+    private RunResultLog(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * append the result of a process to the log of a run
+     *
+     * @param runFolder folder of the run
+     * @param diff result of the process
+     */
+    public static void append(Path runFolder, PullDiff diff) {
+        byte[] payload;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            PullDiff.XML_MAPPER.marshal(diff, out);
+            payload = out.toByteArray();
+        } catch (JAXBException ex) {
+            log.error("DataPollerPlugin: Couldn't marshal the result of process {}", diff.getProcessId(), ex);
+            return;
+        }
+        Path logFile = runFolder.resolve(FILE_NAME).toAbsolutePath();
+        while (true) {
+            RunResultLog resultLog = open(logFile);
+            try {
+                if (resultLog.write(payload)) {
+                    return;
+                }
+            } catch (IOException ex) {
+                log.error("DataPollerPlugin: Couldn't write the result of process {} into {}", diff.getProcessId(), logFile, ex);
+                return;
+            }
+            // the log was closed in the meantime, the result is written by a new instance
+        }
+    }
+
+    private static RunResultLog open(Path logFile) {
+        RunResultLog resultLog = LOGS.get(logFile);
+        if (resultLog != null) {
+            return resultLog;
+        }
+        synchronized (LOGS) {
+            if (syncExecutor == null) {
+                syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "DataPoller result log sync");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                syncExecutor.scheduleWithFixedDelay(RunResultLog::syncAll, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return LOGS.computeIfAbsent(logFile, RunResultLog::new);
+        }
+    }
+
+    private static void remove(RunResultLog resultLog) {
+        synchronized (LOGS) {
+            LOGS.remove(resultLog.file, resultLog);
+            if (LOGS.isEmpty() && syncExecutor != null) {
+                syncExecutor.shutdown();
+                syncExecutor = null;
+            }
+        }
+        resultLog.closeLog();
+    }
+
+    /**
+     * read all results of a run in the order in which they were written
+     *
+     * @param runFolder folder of the run
+     * @param consumer receives every result
+     * @return number of results
+     */
+    public static int read(Path runFolder, Consumer<PullDiff> consumer) {
+        int[] count = { 0 };
+        read(runFolder, 0, diff -> {
+            consumer.accept(diff);
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    /**
+     * read the results of a run that were written after a position of the log, e.g. to process only the results that arrived since the last
+     * call
+     *
+     * @param runFolder folder of the run
+     * @param offset position in the log as returned by the last call, 0 for the start of the log
+     * @param consumer receives every result
+     * @return position after the last complete result
+     */
+    public static long read(Path runFolder, long offset, Consumer<PullDiff> consumer) {
+        return readRecords(runFolder, offset, (position, diff) -> consumer.accept(diff));
+    }
+
+    /**
+     * read the results of a run that were written after a position of the log together with their positions, e.g. to build an index of the log
+     *
+     * @param runFolder folder of the run
+     * @param offset position in the log as returned by the last call, 0 for the start of the log
+     * @param consumer receives every result and its position
+     * @return position after the last complete result
+     */
+    public static long readRecords(Path runFolder, long offset, RecordConsumer consumer) {
+        Path logFile = runFolder.resolve(FILE_NAME);
+        if (!Files.exists(logFile)) {
+            return offset;
+        }
+        long position = offset;
+        try (SeekableByteChannel channel = Files.newByteChannel(logFile)) {
+            channel.position(offset);
+            DataInputStream data = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 65536));
+            while (true) {
+                int length;
+                try {
+                    length = data.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    log.error("DataPollerPlugin: The result log {} is corrupted at position {}", logFile, position);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                try {
+                    data.readFully(payload);
+                } catch (EOFException e) {
+                    // the last record was not written completely (yet)
+                    log.debug("DataPollerPlugin: Ignoring the incomplete last result in {}", logFile);
+                    break;
+                }
+                consumer.accept(position, unmarshal(logFile, position, payload));
+                position += Integer.BYTES + length;
+            }
+        } catch (IOException e) {
+            log.error("DataPollerPlugin: Couldn't read the result log {}", logFile, e);
+        }
+        return position;
+    }
+
+    /**
+     * read single results of a run
+     *
+     * @param runFolder folder of the run
+     * @param positions positions of the results in the log, as passed to a {@link RecordConsumer}
+     * @param consumer receives the results in the order of the positions
+     * @throws IOException if a result couldn't be read
+     */
+    public static void readAt(Path runFolder, long[] positions, Consumer<PullDiff> consumer) throws IOException {
+        Path logFile = runFolder.resolve(FILE_NAME);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+            for (long position : positions) {
+                lengthBuffer.clear();
+                readFully(channel, lengthBuffer, position);
+                int length = lengthBuffer.getInt(0);
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    throw new IOException("The result log " + logFile + " is corrupted at position " + position);
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + Integer.BYTES);
+                consumer.accept(unmarshal(logFile, position, payload.array()));
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of the result log");
+            }
+        }
+    }
+
+    /**
+     * unmarshal a record, a record that can't be unmarshalled is returned as failed result without process
+     */
+    private static PullDiff unmarshal(Path logFile, long position, byte[] payload) {
+        try {
+            return PullDiff.XML_MAPPER.unmarshal(new ByteArrayInputStream(payload));
+        } catch (JAXBException e) {
+            log.error("DataPollerPlugin: Couldn't unmarshal the result at position {} of {}", position, logFile, e);
+            return new PullDiff(0, "", true, "The result couldn't be read from the result log");
+        }
+    }
+
+    /**
+     * remove a record at the end of the log that was cut off by a crash, so that the next record is not appended to it
+     */
+    private static void truncateIncompleteRecord(Path logFile) throws IOException {
+        if (!Files.exists(logFile)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+            while (size - position >= Integer.BYTES) {
+                lengthBuffer.clear();
+                readFully(channel, lengthBuffer, position);
+                int length = lengthBuffer.getInt(0);
+                if (length <= 0 || length > MAX_RECORD_SIZE || position + Integer.BYTES + length > size) {
+                    break;
+                }
+                position += Integer.BYTES + length;
+            }
+            if (position < size) {
+                log.warn("DataPollerPlugin: Removing {} bytes of an incomplete result at the end of {}", size - position, logFile);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    /**
+     * close the log of a run, e.g. before its folder is deleted
+     *
+     * @param runFolder
+     */
+    public static void close(Path runFolder) {
+        RunResultLog resultLog = LOGS.get(runFolder.resolve(FILE_NAME).toAbsolutePath());
+        if (resultLog != null) {
+            remove(resultLog);
+        }
+    }
+
+    /**
+     * write a record into the log
+     *
+     * @return false if the log was closed and nothing was written
+     */
+    private synchronized boolean write(byte[] payload) throws IOException {
+        if (closed) {
+            return false;
+        }
+        if (channel == null) {
+            // the folder of the run is not created here, it may have been deleted together with the run
+            truncateIncompleteRecord(file);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + payload.length);
+        buffer.putInt(payload.length).put(payload).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        lastUse = System.currentTimeMillis();
+        if (++unsyncedRecords >= SYNC_BATCH_SIZE) {
+            sync();
+        }
+        return true;
+    }
+
+    private synchronized void sync() throws IOException {
+        if (channel != null && unsyncedRecords > 0) {
+            channel.force(false);
+            unsyncedRecords = 0;
+        }
+    }
+
+    private synchronized void closeLog() {
+        closed = true;
+        if (channel != null) {
+            try {
+                sync();
+                channel.close();
+            } catch (IOException e) {
+                log.error("DataPollerPlugin: Couldn't close the result log {}", file, e);
+            }
+            channel = null;
+        }
+    }
+
+    private synchronized boolean isIdle() {
+        return System.currentTimeMillis() - lastUse > IDLE_MILLIS;
+    }
+
+    private static void syncAll() {
+        for (RunResultLog resultLog : LOGS.values()) {
+            try {
+                resultLog.sync();
+            } catch (IOException e) {
+                log.error("DataPollerPlugin: Couldn't sync the result log {}", resultLog.file, e);
+            }
+            if (resultLog.isIdle()) {
+                // the next record opens a new instance
+                remove(resultLog);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(long position, PullDiff diff);
+    }
+}
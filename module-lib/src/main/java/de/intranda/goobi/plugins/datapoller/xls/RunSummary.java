@@ -0,0 +1,45 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.util.Collections;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Counters of a run, as collected by the RunAggregator
+ */
+@Getter
+@AllArgsConstructor
+public class RunSummary {
+    // processes with a result
+    private int processed;
+    // processes whose record differs from the catalogue
+    private int changed;
+    private int failed;
+    private int skippedByOutage;
+    // number of changes per field, ordered by the name of the field
+    private Map<String, Integer> fieldChanges;
+
+    public static RunSummary empty() {
+        return new RunSummary(0, 0, 0, 0, Collections.emptyMap());
+    }
+}
@@ -21,60 +21,66 @@ package de.intranda.goobi.plugins.datapoller.xls;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import de.intranda.goobi.plugins.datapoller.PullDiff;
-import de.sub.goobi.helper.StorageProvider;
 import lombok.extern.log4j.Log4j2;
 
 @Log4j2
 public class XlsWriter {
 
     private static final int MAX_ROWS_PER_SHEET = 1000000;
+    // maximum number of characters of a cell in an xlsx file
+    private static final int MAX_CELL_LENGTH = 32767;
+    // rows that are kept in memory, older rows are written to temporary files
+    private static final int ROW_ACCESS_WINDOW = 100;
 
     private Path path;
     private final DateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
+    private final DateFormat outageFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * results of a run that can be read several times, one result after the other
+     */
+    @FunctionalInterface
+    public interface DiffSource {
+        void forEach(Consumer<? super PullDiff> consumer);
+    }
 
     public XlsWriter(Path targetFolder) {
         this.path = targetFolder;
     }
 
-    public FolderInfo writeWorkbook(Path XmlFolder) {
-        Path reportInfoPath = FileManager.getReportInfoFile(XmlFolder);
-        if (reportInfoPath == null) {
-            return null;
-        }
-        ReportInfo info = ReportInfo.unmarshalReportInfo(reportInfoPath);
-        List<Path> differencesXML = FileManager.getXmlFiles(XmlFolder);
-        List<PullDiff> differences = new ArrayList<>();
-        if (info != null) {
-            for (Path xmlFile : differencesXML) {
-                differences.add(PullDiff.unmarshalPullDiff(xmlFile));
-            }
-            boolean unfinished = differences.size() < info.getTicketCount();
-            Path xlsFile = writeWorkbook(differences, info.getLastRunMillis(), info.getRuleName(), info.isTestRun(), unfinished);
-            if (xlsFile != null && differences.size() == info.getTicketCount()) {
-                if (!StorageProvider.getInstance().deleteDir(XmlFolder)) {
-                    log.debug("DataPollerPlugin: Couldn't delete the folder: " + XmlFolder);
-                }
-            }
-            return new FolderInfo(xlsFile, differences, info);
-        } else {
+    /**
+     * Creates an xlsx File with the results of a run. The counters and outage windows are taken from the aggregator of the run, so that the
+     * results are read only once. The rows are ordered by process id.
+     *
+     * @param XmlFolder folder of the run
+     * @param aggregator aggregator of the run, already updated
+     * @return Path that points to the generated xlsx-File
+     */
+    public Path writeWorkbook(Path XmlFolder, RunAggregator aggregator) {
+        ReportInfo info = aggregator.getInfo();
+        if (info == null) {
             log.error("DataPollerPlugin: Couldn't find reportInfo.xml file in {}! No xlsx-Report was created!", XmlFolder.toString());
             return null;
         }
+        boolean unfinished = !aggregator.isComplete();
+        return writeWorkbook(aggregator::forEachByProcessId, aggregator.getOutages(), info.getLastRunMillis(), info.getRuleName(),
+                info.isTestRun(), unfinished);
     }
 
     /**
@@ -87,17 +93,33 @@ public class XlsWriter {
      * @return Path that points to the generated xlsx-File
      */
     public Path writeWorkbook(List<PullDiff> differences, long lastRunMillis, String ruleName, boolean testRun, boolean unfinished) {
-        Workbook wb = new XSSFWorkbook();
+        return writeWorkbook(differences::forEach, OutageWindow.collect(differences), lastRunMillis, ruleName, testRun, unfinished);
+    }
+
+    /**
+     * Creates an xlsx File with the Differences between the old docstruct and the new docstruct. The rows are written while the results are
+     * read, so that only a small window of rows is kept in memory.
+     *
+     * @param source results of the processes
+     * @param outages outage windows of the run
+     * @param lastRunMillis time of the last run in Milliseconds
+     * @param ruleName name of the rule
+     * @param was this run a testRun run or not
+     * @return Path that points to the generated xlsx-File
+     */
+    public Path writeWorkbook(DiffSource source, List<OutageWindow> outages, long lastRunMillis, String ruleName, boolean testRun,
+            boolean unfinished) {
+        SXSSFWorkbook wb = new SXSSFWorkbook(ROW_ACCESS_WINDOW);
+        wb.setCompressTempFiles(true);
 
         Calendar calendar = Calendar.getInstance();
         calendar.setTimeInMillis(lastRunMillis);
 
-        int sheetIndex = 1;
-        Sheet sheet = wb.createSheet("Report Catalogue Poller");
+        Sheet firstSheet = wb.createSheet("Report Catalogue Poller");
         int rowCounter = 0;
 
         //create header on first sheet
-        Row header = sheet.createRow(rowCounter++);
+        Row header = firstSheet.createRow(rowCounter++);
         writeCellsToRow(header, ruleName, (testRun) ? "test run" : "report", (unfinished) ? "interim result" : "");
         Cell cell = header.createCell(header.getLastCellNum());
         CellStyle cellStyle = wb.createCellStyle();
@@ -105,42 +127,85 @@ public class XlsWriter {
         cell.setCellStyle(cellStyle);
         cell.setCellValue(calendar.getTime());
 
-        writeCellsToRow(sheet.createRow(rowCounter++), "id", "title", "field", "old value", "new value");
-
-        //write content
-        for (PullDiff difference : differences) {
-            for (XlsData data : difference.getXlsData()) {
-                if (rowCounter >= MAX_ROWS_PER_SHEET) {
-                    sheetIndex++;
-                    sheet = wb.createSheet("Report Catalogue Poller (" + sheetIndex + ")");
-                    rowCounter = 0;
-                    writeCellsToRow(sheet.createRow(rowCounter++), "id", "title", "field", "old value", "new value");
+        // processes skipped during an outage of the catalogue are summarized instead of listing each of them
+        for (OutageWindow outage : outages) {
+            StringBuilder ids = new StringBuilder();
+            for (Integer id : outage.getProcessIds()) {
+                if (ids.length() > 0) {
+                    ids.append(", ");
                 }
-                writeCellsToRow(sheet.createRow(rowCounter++), String.valueOf(difference.getProcessId()), difference.getProcessTitle(),
-                        data.getField(), data.getOldValues(), data.getNewValues());
+                ids.append(id);
             }
+            String idList = ids.length() > MAX_CELL_LENGTH ? ids.substring(0, MAX_CELL_LENGTH - 3) + "..." : ids.toString();
+            writeCellsToRow(firstSheet.createRow(rowCounter++), "catalogue unavailable",
+                    outageFormatter.format(outage.getStart()) + " - " + outageFormatter.format(outage.getEnd()),
+                    outage.getProcessCount() + " processes skipped", idList);
         }
 
+        writeCellsToRow(firstSheet.createRow(rowCounter++), "id", "title", "field", "old value", "new value");
+
         StringBuilder fileName = new StringBuilder().append(ruleName.toLowerCase().trim().replace(" ", "_"));
         fileName.append("-").append(dateFormatter.format(calendar.getTime())).append(".xlsx");
         Path targetPath = this.path.resolve(fileName.toString());
 
-        //write file to file system
-        try (OutputStream outputFile = new FileOutputStream(targetPath.toString())) {
-            wb.write(outputFile);
+        try {
+            //write content
+            SheetCursor cursor = new SheetCursor(wb, firstSheet, rowCounter);
+            source.forEach(difference -> {
+                for (XlsData data : difference.getXlsData()) {
+                    writeCellsToRow(cursor.nextRow(), String.valueOf(difference.getProcessId()), difference.getProcessTitle(), data.getField(),
+                            data.getOldValues(), data.getNewValues());
+                }
+            });
+
+            //write file to file system
+            try (OutputStream outputFile = new FileOutputStream(targetPath.toString())) {
+                wb.write(outputFile);
+            }
+        } catch (UncheckedIOException e) {
+            log.error("DataPollerPlugin: Couldn't read the results of the run! No xlsx-report was created!", e.getCause());
+            return null;
         } catch (IOException e) {
             log.error("DataPollerPlugin: Error writing File to Disk! No xlsx-report was created!", e);
             return null;
         } finally {
+            // delete the temporary files of the sheets
+            wb.dispose();
             try {
                 wb.close();
             } catch (IOException e) {
-                log.error("DataPollerPlugin: Error closing XSSF workbook!", e);
+                log.error("DataPollerPlugin: Error closing SXSSF workbook!", e);
             }
         }
         return targetPath;
     }
 
+    /**
+     * position of the next content row, continues on a new sheet when a sheet is full
+     */
+    private class SheetCursor {
+        private final Workbook wb;
+        private Sheet sheet;
+        private int sheetIndex = 1;
+        private int rowCounter;
+
+        SheetCursor(Workbook wb, Sheet sheet, int rowCounter) {
+            this.wb = wb;
+            this.sheet = sheet;
+            this.rowCounter = rowCounter;
+        }
+
+        Row nextRow() {
+            if (rowCounter >= MAX_ROWS_PER_SHEET) {
+                sheetIndex++;
+                sheet = wb.createSheet("Report Catalogue Poller (" + sheetIndex + ")");
+                rowCounter = 0;
+                writeCellsToRow(sheet.createRow(rowCounter++), "id", "title", "field", "old value", "new value");
+            }
+            return sheet.createRow(rowCounter++);
+        }
+    }
+
     private void writeCellsToRow(Row row, String... cellContent) {
         for (int i = 0; i < cellContent.length; i++) {
             Cell cell = row.createCell(i);
@@ -117,6 +117,31 @@ public class PollDocStructTest {
         Assert.assertEquals("Two xlsx-entries should have been created", 2, diff4.getXlsData().size());
     }
 
+    @Test
+    public void testFingerprintIgnoresOrder() {
+        FieldFilter filter = new FieldFilter(List.of("PublicationYear", "Author"), false);
+        addMetadata(dsNew, "PublicationYear", "1970");
+        addMetadata(dsNew, "PublicationYear", "1975");
+        addPerson(dsNew, "Author", "Noam", "Chomsky");
+        addPerson(dsOld, "Author", "Noam", "Chomsky");
+        addMetadata(dsOld, "PublicationYear", "1975");
+        addMetadata(dsOld, "PublicationYear", "1970");
+        Assert.assertTrue("The order of the values should not change the fingerprint", RecordFingerprint.isEqual(filter, dsNew, dsOld));
+        Assert.assertEquals(RecordFingerprint.of(filter, dsNew), RecordFingerprint.of(filter, dsOld));
+
+        PullDiff diff = new PullDiff();
+        PollDocStruct.checkDifferences(dsNew, dsOld, filter, diff);
+        Assert.assertEquals("Equal records should not create messages", 0, diff.getMessages().size());
+
+        // a value of a field that is not in the list doesn't change the fingerprint
+        addMetadata(dsOld, "TitleDocMain", "Title");
+        Assert.assertTrue(RecordFingerprint.isEqual(filter, dsNew, dsOld));
+
+        addPerson(dsOld, "Author", "Chomsky", "Noam");
+        Assert.assertFalse("Different persons should change the fingerprint", RecordFingerprint.isEqual(filter, dsNew, dsOld));
+        Assert.assertNotEquals(RecordFingerprint.of(filter, dsNew), RecordFingerprint.of(filter, dsOld));
+    }
+
     private static void addMetadata(DocStruct ds, String type, String value) {
         try {
             Metadata metadata = new Metadata(prefs.getMetadataTypeByName(type));
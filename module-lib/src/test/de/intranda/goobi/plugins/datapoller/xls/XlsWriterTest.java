@@ -29,6 +29,9 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -81,4 +84,26 @@ public class XlsWriterTest {
         Assert.assertTrue("No File was created!", Files.exists(result));
     }
 
+    @Test
+    public void testWriteWorkbookFromSource() throws Exception {
+        int results = 250;
+        XlsWriter.DiffSource source = consumer -> {
+            for (int i = 1; i <= results; i++) {
+                PullDiff pd = new PullDiff(i, "Process " + i, false, "");
+                List<XlsData> xlsDataList = new ArrayList<>();
+                xlsDataList.add(new XlsData("TitleDocMain", "oldValue", "newValue"));
+                pd.setXlsData(xlsDataList);
+                consumer.accept(pd);
+            }
+        };
+
+        Path result = xlsWriter.writeWorkbook(source, new ArrayList<>(), 1663242175977L, "Archive Project", false, false);
+
+        // header, column titles and a row per result, more rows than the window that is kept in memory
+        try (Workbook wb = new XSSFWorkbook(result.toFile())) {
+            Sheet sheet = wb.getSheetAt(0);
+            Assert.assertEquals(results + 1, sheet.getLastRowNum());
+            Assert.assertEquals("Process " + results, sheet.getRow(results + 1).getCell(1).getStringCellValue());
+        }
+    }
 }
@@ -0,0 +1,123 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CatalogueLimiterTest {
+
+    @Test
+    public void testBackoffAndRecovery() throws Exception {
+        CatalogueLimiter limiter = CatalogueLimiter.getInstance("testBackoffAndRecovery");
+        limiter.configure("rule", 8, 100);
+
+        limiter.acquire();
+        limiter.release(10, false);
+        CatalogueLimiter.Statistics stats = limiter.getStatistics();
+        Assert.assertEquals(4, stats.getCurrentConcurrentRequests());
+        Assert.assertEquals(50, stats.getCurrentRequestsPerSecond(), 0.001);
+        Assert.assertEquals(1, stats.getFailedRequests());
+        Assert.assertEquals(1, stats.getBackoffs());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(10, true);
+        }
+        stats = limiter.getStatistics();
+        Assert.assertEquals(8, stats.getCurrentConcurrentRequests());
+        Assert.assertEquals(100, stats.getCurrentRequestsPerSecond(), 0.001);
+        Assert.assertEquals(101, stats.getRequests());
+        Assert.assertEquals(0, stats.getActiveRequests());
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        CatalogueLimiter limiter = CatalogueLimiter.getInstance("testConcurrencyLimit");
+        limiter.configure("rule", 1, 0);
+        limiter.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread second = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+                limiter.release(1, true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        second.start();
+        // the second request has to wait until the first one is finished
+        Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        limiter.release(1, true);
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        second.join();
+        Assert.assertEquals(0, limiter.getStatistics().getActiveRequests());
+    }
+
+    @Test
+    public void testAlternatingRules() throws Exception {
+        CatalogueLimiter limiter = CatalogueLimiter.getInstance("testAlternatingRules");
+        limiter.configure("first", 8, 100);
+        limiter.configure("second", 4, 0);
+        CatalogueLimiter.Statistics stats = limiter.getStatistics();
+        // the lowest limit of each kind is used
+        Assert.assertEquals(4, stats.getMaxConcurrentRequests());
+        Assert.assertEquals(100, stats.getMaxRequestsPerSecond(), 0.001);
+
+        limiter.acquire();
+        limiter.release(10, false);
+        // requests of both rules alternate, the reduced limits are kept
+        for (int i = 0; i < 10; i++) {
+            limiter.configure(i % 2 == 0 ? "first" : "second", i % 2 == 0 ? 8 : 4, i % 2 == 0 ? 100 : 0);
+        }
+        stats = limiter.getStatistics();
+        Assert.assertEquals(2, stats.getCurrentConcurrentRequests());
+        Assert.assertEquals(50, stats.getCurrentRequestsPerSecond(), 0.001);
+
+        // a lower limit of a rule reduces the current limits, a higher one keeps them
+        limiter.configure("second", 1, 0);
+        Assert.assertEquals(1, limiter.getStatistics().getCurrentConcurrentRequests());
+        limiter.configure("second", 4, 0);
+        stats = limiter.getStatistics();
+        Assert.assertEquals(4, stats.getMaxConcurrentRequests());
+        Assert.assertEquals(1, stats.getCurrentConcurrentRequests());
+    }
+
+    @Test
+    public void testExpiredRule() throws Exception {
+        CatalogueLimiter limiter = CatalogueLimiter.getInstance("testExpiredRule");
+        long now = System.currentTimeMillis();
+        limiter.configure("removed", 1, 1, now);
+        limiter.configure("kept", 8, 100, now);
+        Assert.assertEquals(1, limiter.getStatistics().getMaxConcurrentRequests());
+
+        // the limits of a rule that no longer requests the catalogue are dropped after an hour
+        limiter.configure("kept", 8, 100, now + TimeUnit.MINUTES.toMillis(30));
+        Assert.assertEquals(1, limiter.getStatistics().getMaxConcurrentRequests());
+        limiter.configure("kept", 8, 100, now + TimeUnit.MINUTES.toMillis(61));
+        CatalogueLimiter.Statistics stats = limiter.getStatistics();
+        Assert.assertEquals(8, stats.getMaxConcurrentRequests());
+        Assert.assertEquals(100, stats.getMaxRequestsPerSecond(), 0.001);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.NamePart;
+import ugh.dl.Person;
+import ugh.dl.Prefs;
+
+public class RecordMergerTest {
+    private static Path ruleSet;
+    private Prefs prefs;
+    private DocStruct dsOld;
+    private DocStruct dsNew;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+        ruleSet = Paths.get(resourcesFolder + "ruleset.xml");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new Prefs();
+        prefs.loadPrefs(ruleSet.toString());
+        DigitalDocument document = new DigitalDocument();
+        dsOld = document.createDocStruct(prefs.getDocStrctTypeByName("Monograph"));
+        dsNew = document.createDocStruct(prefs.getDocStrctTypeByName("Monograph"));
+    }
+
+    @Test
+    public void testMergeReplacesChangedTypesOnly() throws Exception {
+        FieldFilter filter = new FieldFilter(List.of("PublicationYear", "SubjectTopic"), false);
+        for (int i = 0; i < 3; i++) {
+            addMetadata(dsOld, "SubjectTopic", "Subject " + i);
+            addMetadata(dsNew, "SubjectTopic", "Subject " + i);
+        }
+        addMetadata(dsOld, "PublicationYear", "1970");
+        addMetadata(dsNew, "PublicationYear", "1975");
+        addMetadata(dsNew, "TitleDocMain", "Title");
+
+        // one old year removed and one new year added, the subjects are equal and the title is not in the list
+        Assert.assertEquals(2, RecordMerger.merge(filter, dsOld, dsNew));
+        Assert.assertEquals("1975", dsOld.getAllMetadataByType(prefs.getMetadataTypeByName("PublicationYear")).get(0).getValue());
+        Assert.assertEquals(3, dsOld.getAllMetadataByType(prefs.getMetadataTypeByName("SubjectTopic")).size());
+        Assert.assertTrue(dsOld.getAllMetadataByType(prefs.getMetadataTypeByName("TitleDocMain")).isEmpty());
+
+        // nothing left to change
+        Assert.assertEquals(0, RecordMerger.merge(filter, dsOld, dsNew));
+    }
+
+    @Test
+    public void testMergePersonWithChangedNameParts() throws Exception {
+        FieldFilter filter = new FieldFilter(List.of("Author"), false);
+        addPerson(dsOld, "1900-1980");
+        addPerson(dsNew, "1901-1980");
+
+        // the persons differ only in the additional name parts
+        Assert.assertEquals(2, RecordMerger.merge(filter, dsOld, dsNew));
+        Person author = dsOld.getAllPersonsByType(prefs.getMetadataTypeByName("Author")).get(0);
+        Assert.assertEquals("1901-1980", author.getAdditionalNameParts().get(0).getValue());
+
+        Assert.assertEquals(0, RecordMerger.merge(filter, dsOld, dsNew));
+    }
+
+    private void addPerson(DocStruct ds, String date) throws Exception {
+        Person person = new Person(prefs.getMetadataTypeByName("Author"));
+        person.setFirstname("Firstname");
+        person.setLastname("Lastname");
+        List<NamePart> nameParts = new ArrayList<>();
+        nameParts.add(new NamePart("date", date));
+        person.setAdditionalNameParts(nameParts);
+        ds.addPerson(person);
+    }
+
+    private void addMetadata(DocStruct ds, String type, String value) throws Exception {
+        Metadata metadata = new Metadata(prefs.getMetadataTypeByName(type));
+        metadata.setValue(value);
+        ds.addMetadata(metadata);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+
+    @Test
+    public void testLeaderThrowsError() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch fail = new CountDownLatch(1);
+        AtomicReference<Throwable> leaderResult = new AtomicReference<>();
+        Thread leader = new Thread(() -> {
+            try {
+                RequestCoalescer.execute("testLeaderThrowsError", "key", null, () -> {
+                    started.countDown();
+                    try {
+                        fail.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new Error("leader failed");
+                });
+            } catch (Throwable e) {
+                leaderResult.set(e);
+            }
+        });
+        leader.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        AtomicReference<Throwable> followerResult = new AtomicReference<>();
+        CountDownLatch followerDone = new CountDownLatch(1);
+        Thread follower = new Thread(() -> {
+            try {
+                RequestCoalescer.execute("testLeaderThrowsError", "key", null, () -> null);
+            } catch (Throwable e) {
+                followerResult.set(e);
+            }
+            followerDone.countDown();
+        });
+        follower.start();
+        // the follower waits for the result of the leader
+        Assert.assertFalse(followerDone.await(200, TimeUnit.MILLISECONDS));
+
+        fail.countDown();
+        Assert.assertTrue(followerDone.await(5, TimeUnit.SECONDS));
+        leader.join();
+        Assert.assertEquals(Error.class, leaderResult.get().getClass());
+        Assert.assertTrue(followerResult.get() instanceof CatalogueHandlerException);
+        Assert.assertSame(leaderResult.get(), followerResult.get().getCause());
+
+        // the failed request is not shared, the next caller requests the catalogue again
+        CountDownLatch executed = new CountDownLatch(1);
+        Assert.assertNull(RequestCoalescer.execute("testLeaderThrowsError", "key", null, () -> {
+            executed.countDown();
+            return null;
+        }));
+        Assert.assertEquals(0, executed.getCount());
+    }
+}
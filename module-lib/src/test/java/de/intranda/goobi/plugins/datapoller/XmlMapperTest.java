@@ -0,0 +1,65 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XmlMapperTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        PullDiff diff = new PullDiff(42, "Process 42", false, "");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PullDiff.XML_MAPPER.marshal(diff, out);
+
+        PullDiff read = PullDiff.XML_MAPPER.unmarshal(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(42, read.getProcessId());
+        Assert.assertEquals("Process 42", read.getProcessTitle());
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                int processId = i;
+                results.add(executor.submit(() -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    PullDiff.XML_MAPPER.marshal(new PullDiff(processId, "Process " + processId, false, ""), out);
+                    return PullDiff.XML_MAPPER.unmarshal(new ByteArrayInputStream(out.toByteArray())).getProcessId();
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(i, results.get(i).get().intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.datapoller.PullDiff;
+
+public class ReportExporterTest {
+
+    private static XlsWriter.DiffSource createSource() {
+        PullDiff pd = new PullDiff(123, "TestTitle", false, "");
+        List<XlsData> xlsDataList = new ArrayList<>();
+        xlsDataList.add(new XlsData("TitleDocMain", "old, \"quoted\"", "new\nline"));
+        pd.setXlsData(xlsDataList);
+        List<PullDiff> differences = new ArrayList<>();
+        differences.add(pd);
+        return differences::forEach;
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReportExporter.export(createSource(), ReportExporter.Format.CSV, out);
+        Assert.assertEquals("id,title,field,old value,new value\r\n123,TestTitle,TitleDocMain,\"old, \"\"quoted\"\"\",\"new\nline\"\r\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNdjson() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReportExporter.export(createSource(), ReportExporter.Format.NDJSON, out);
+        Assert.assertEquals(
+                "{\"id\":123,\"title\":\"TestTitle\",\"field\":\"TitleDocMain\",\"oldValue\":\"old, \\\"quoted\\\"\",\"newValue\":\"new\\nline\"}\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.datapoller.PullDiff;
+
+public class ReportIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReportIsReusedUntilNewResultsArrive() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_1").toPath();
+        Path xlsFile = folder.newFile("test-2024-01-01-00-00-00.xlsx").toPath();
+        RunResultLog.append(runFolder, new PullDiff(1, "Process 1", false, ""));
+        RunResultLog.close(runFolder);
+
+        ReportIndex.put("test", runFolder, ReportIndex.getState(runFolder), xlsFile);
+        Assert.assertEquals(xlsFile, ReportIndex.get("test", runFolder, ReportIndex.getState(runFolder)));
+
+        RunResultLog.append(runFolder, new PullDiff(2, "Process 2", false, ""));
+        RunResultLog.close(runFolder);
+        Assert.assertNull(ReportIndex.get("test", runFolder, ReportIndex.getState(runFolder)));
+    }
+}
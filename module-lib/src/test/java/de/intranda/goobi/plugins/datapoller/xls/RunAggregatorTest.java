@@ -0,0 +1,110 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.datapoller.PullDiff;
+import de.intranda.goobi.plugins.datapoller.XmlMapper;
+
+public class RunAggregatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResultsAreOrderedByProcessId() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_1").toPath();
+        // more results than fit into two chunks, in descending order of their process ids
+        for (int id = 700; id >= 1; id--) {
+            RunResultLog.append(runFolder, new PullDiff(id, "Process " + id, false, ""));
+        }
+        // a second result for some processes
+        for (int id = 1; id <= 100; id++) {
+            RunResultLog.append(runFolder, new PullDiff(id, "Process " + id + " second", false, ""));
+        }
+        RunResultLog.close(runFolder);
+        // result files of an older version
+        XmlMapper<PullDiff> mapper = new XmlMapper<>(PullDiff.class, false);
+        for (int id = 701; id <= 1000; id++) {
+            mapper.marshal(new PullDiff(id, "Legacy " + id, false, ""), runFolder.resolve(id + ".xml").toFile());
+        }
+        mapper.marshal(new PullDiff(5, "Process 5 legacy", false, ""), runFolder.resolve("5_1.xml").toFile());
+        writeReportInfo(runFolder, 1101);
+
+        RunAggregator aggregator = RunAggregator.getInstance(runFolder);
+        Assert.assertTrue(aggregator.update());
+        Assert.assertTrue(aggregator.isComplete());
+
+        List<PullDiff> results = new ArrayList<>();
+        aggregator.forEachByProcessId(results::add);
+        Assert.assertEquals(1101, results.size());
+        for (int i = 1; i < results.size(); i++) {
+            Assert.assertTrue(results.get(i - 1).getProcessId() <= results.get(i).getProcessId());
+        }
+        // results of the same process in the order of their arrival
+        Assert.assertEquals("Process 5", results.get(8).getProcessTitle());
+        Assert.assertEquals("Process 5 second", results.get(9).getProcessTitle());
+        Assert.assertEquals("Process 5 legacy", results.get(10).getProcessTitle());
+        Assert.assertEquals("Process 100 second", results.get(200).getProcessTitle());
+        Assert.assertEquals("Process 101", results.get(201).getProcessTitle());
+        Assert.assertEquals("Legacy 1000", results.get(1100).getProcessTitle());
+        RunAggregator.remove(runFolder);
+    }
+
+    @Test
+    public void testUnreadableResultAbortsTheReport() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_2").toPath();
+        for (int id = 1; id <= 600; id++) {
+            RunResultLog.append(runFolder, new PullDiff(id, "Process " + id, false, ""));
+        }
+        RunResultLog.close(runFolder);
+        new XmlMapper<>(PullDiff.class, false).marshal(new PullDiff(601, "Legacy 601", false, ""), runFolder.resolve("601.xml").toFile());
+        writeReportInfo(runFolder, 601);
+
+        RunAggregator aggregator = RunAggregator.getInstance(runFolder);
+        Assert.assertTrue(aggregator.update());
+        // the result file is damaged after it was aggregated
+        Files.writeString(runFolder.resolve("601.xml"), "<pullDiff");
+
+        List<PullDiff> results = new ArrayList<>();
+        try {
+            aggregator.forEachByProcessId(results::add);
+            Assert.fail("The missing result was not reported");
+        } catch (UncheckedIOException e) {
+            // the results of the first chunk were passed on before
+            Assert.assertEquals(512, results.size());
+        }
+        RunAggregator.remove(runFolder);
+    }
+
+    private void writeReportInfo(Path runFolder, int ticketCount) throws Exception {
+        new XmlMapper<>(ReportInfo.class, true).marshal(new ReportInfo(false, "test", System.currentTimeMillis(), ticketCount),
+                runFolder.resolve("reportInfo.xml").toFile());
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+package de.intranda.goobi.plugins.datapoller.xls;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.datapoller.PullDiff;
+
+public class RunResultLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendAndRead() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_1").toPath();
+        for (int i = 1; i <= 3; i++) {
+            RunResultLog.append(runFolder, new PullDiff(i, "Process " + i, false, ""));
+        }
+        RunResultLog.close(runFolder);
+
+        List<PullDiff> differences = new ArrayList<>();
+        Assert.assertEquals(3, RunResultLog.read(runFolder, differences::add));
+        Assert.assertEquals(2, differences.get(1).getProcessId());
+        Assert.assertEquals("Process 3", differences.get(2).getProcessTitle());
+        // all results are in a single file
+        Assert.assertTrue(Files.exists(runFolder.resolve(RunResultLog.FILE_NAME)));
+    }
+
+    @Test
+    public void testIncompleteRecordIsIgnored() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_2").toPath();
+        RunResultLog.append(runFolder, new PullDiff(1, "Process 1", false, ""));
+        RunResultLog.close(runFolder);
+        // a record that was cut off while it was written
+        Files.write(runFolder.resolve(RunResultLog.FILE_NAME), new byte[] { 0, 0, 1, 0, '<', 'p' }, StandardOpenOption.APPEND);
+
+        List<PullDiff> differences = new ArrayList<>();
+        Assert.assertEquals(1, RunResultLog.read(runFolder, differences::add));
+    }
+
+    @Test
+    public void testReadFromOffset() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_3").toPath();
+        RunResultLog.append(runFolder, new PullDiff(1, "Process 1", false, ""));
+        RunResultLog.append(runFolder, new PullDiff(2, "Process 2", false, ""));
+        RunResultLog.close(runFolder);
+
+        List<PullDiff> differences = new ArrayList<>();
+        long offset = RunResultLog.read(runFolder, 0, differences::add);
+        Assert.assertEquals(2, differences.size());
+        Assert.assertEquals(Files.size(runFolder.resolve(RunResultLog.FILE_NAME)), offset);
+
+        // only the results that arrived since the last call are read
+        RunResultLog.append(runFolder, new PullDiff(3, "Process 3", false, ""));
+        RunResultLog.close(runFolder);
+        differences.clear();
+        offset = RunResultLog.read(runFolder, offset, differences::add);
+        Assert.assertEquals(1, differences.size());
+        Assert.assertEquals(3, differences.get(0).getProcessId());
+        Assert.assertEquals(offset, RunResultLog.read(runFolder, offset, differences::add));
+    }
+
+    @Test
+    public void testReadAtPositions() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_4").toPath();
+        for (int i = 1; i <= 5; i++) {
+            RunResultLog.append(runFolder, new PullDiff(i, "Process " + i, false, ""));
+        }
+        RunResultLog.close(runFolder);
+        List<Long> positions = new ArrayList<>();
+        RunResultLog.readRecords(runFolder, 0, (position, diff) -> positions.add(position));
+        Assert.assertEquals(5, positions.size());
+
+        // a page with the fourth and the second result
+        List<PullDiff> page = new ArrayList<>();
+        RunResultLog.readAt(runFolder, new long[] { positions.get(3), positions.get(1) }, page::add);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(4, page.get(0).getProcessId());
+        Assert.assertEquals(2, page.get(1).getProcessId());
+    }
+
+    @Test
+    public void testAppendAfterClose() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_5").toPath();
+        RunResultLog.append(runFolder, new PullDiff(1, "Process 1", false, ""));
+        RunResultLog.close(runFolder);
+        // the closed log is replaced by a new one
+        RunResultLog.append(runFolder, new PullDiff(2, "Process 2", false, ""));
+        RunResultLog.close(runFolder);
+        Assert.assertEquals(2, RunResultLog.read(runFolder, diff -> {
+        }));
+
+        // the folder of a deleted run is not created again
+        Files.delete(runFolder.resolve(RunResultLog.FILE_NAME));
+        Files.delete(runFolder);
+        RunResultLog.append(runFolder, new PullDiff(3, "Process 3", false, ""));
+        RunResultLog.close(runFolder);
+        Assert.assertFalse(Files.exists(runFolder));
+    }
+
+    @Test
+    public void testAppendAfterIncompleteRecord() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_6").toPath();
+        RunResultLog.append(runFolder, new PullDiff(1, "Process 1", false, ""));
+        RunResultLog.close(runFolder);
+        // a record that was cut off by a crash, the run continues afterwards
+        Files.write(runFolder.resolve(RunResultLog.FILE_NAME), new byte[] { 0, 0, 1, 0, '<', 'p' }, StandardOpenOption.APPEND);
+        RunResultLog.append(runFolder, new PullDiff(2, "Process 2", false, ""));
+        RunResultLog.append(runFolder, new PullDiff(3, "Process 3", false, ""));
+        RunResultLog.close(runFolder);
+
+        List<PullDiff> differences = new ArrayList<>();
+        Assert.assertEquals(3, RunResultLog.read(runFolder, differences::add));
+        Assert.assertEquals(3, differences.get(2).getProcessId());
+    }
+
+    @Test
+    public void testUnreadableRecordIsFailed() throws Exception {
+        Path runFolder = folder.newFolder("catPoll_test_7").toPath();
+        RunResultLog.append(runFolder, new PullDiff(1, "Process 1", false, ""));
+        RunResultLog.close(runFolder);
+        // a complete record that is no PullDiff
+        Files.write(runFolder.resolve(RunResultLog.FILE_NAME), new byte[] { 0, 0, 0, 3, 'a', 'b', 'c' }, StandardOpenOption.APPEND);
+        RunResultLog.append(runFolder, new PullDiff(2, "Process 2", false, ""));
+        RunResultLog.close(runFolder);
+
+        List<PullDiff> differences = new ArrayList<>();
+        Assert.assertEquals(3, RunResultLog.read(runFolder, differences::add));
+        Assert.assertTrue(differences.get(1).isFailed());
+        Assert.assertEquals(2, differences.get(2).getProcessId());
+    }
+}